@@ -0,0 +1,149 @@
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpTimeoutException;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * HttpTransport that multiplexes requests over a few HTTP/2 connections.
+ *
+ * Each java.net.http.HttpClient keeps one HTTP/2 connection per server and multiplexes every
+ * concurrent request over it as a separate stream. The transport spreads requests round-robin over a
+ * small number of clients, so N clients means N connections however many users are running. Against
+ * an http:// URL the clients negotiate h2c through an HTTP/1.1 Upgrade on their first request; if the
+ * server doesn't support it they stay on HTTP/1.1, which shows up in toString().
+ *
+ * An HttpClient's connect timeout is fixed when it is built, so there is one set of clients per
+ * connect timeout the RequestPolicy asks for. With per-endpoint connect timeouts that means N
+ * connections per distinct timeout rather than N in total.
+ */
+public class Http2Transport implements HttpTransport {
+
+    /* Fields */
+
+    private final int connections;
+    private final ConcurrentMap<Integer, HttpClient[]> clients = new ConcurrentHashMap<>();
+    private final AtomicInteger next = new AtomicInteger();
+    private final LongAdder http2Responses = new LongAdder();
+    private final LongAdder http1Responses = new LongAdder();
+
+    /**
+     * Create the transport and negotiate its connections
+     * @param connections Number of HTTP/2 connections to multiplex over, per connect timeout
+     * @param warmupUrl URL GET on each connection, so the h2c upgrade happens before the load starts
+     */
+    public Http2Transport(int connections, String warmupUrl) throws IOException {
+        this.connections = connections;
+        int[] timeouts = TestServer.policy.timeoutsFor(URI.create(warmupUrl).getPath());
+        for(HttpClient client : clientsFor(timeouts[0])) {
+            try {
+                client.send(HttpRequest.newBuilder(URI.create(warmupUrl)).GET().build(),
+                            java.net.http.HttpResponse.BodyHandlers.discarding());
+            }
+            catch(InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while connecting", e);
+            }
+        }
+    }
+
+    /* the clients built with this connect timeout, created on first use */
+    private HttpClient[] clientsFor(int connectTimeoutMillis) {
+        HttpClient[] group = clients.get(connectTimeoutMillis);
+        if(group == null) {
+            HttpClient.Builder builder = HttpClient.newBuilder().version(HttpClient.Version.HTTP_2);
+            if(connectTimeoutMillis > 0) // 0 is no timeout, as for HttpURLConnection
+                builder.connectTimeout(Duration.ofMillis(connectTimeoutMillis));
+            group = new HttpClient[connections];
+            for(int i = 0; i < connections; i++)
+                group[i] = builder.build();
+            HttpClient[] raced = clients.putIfAbsent(connectTimeoutMillis, group);
+            if(raced != null) group = raced;
+        }
+        return group;
+    }
+
+    @Override
+    public HttpResponse send(String urlStr, String method, String requestJson, boolean acceptCompressed,
+                             int connectTimeoutMillis, int readTimeoutMillis) throws IOException {
+        HttpRequest.Builder request = HttpRequest.newBuilder(URI.create(urlStr));
+        if(readTimeoutMillis > 0) // 0 is no timeout, as for HttpURLConnection
+            request.timeout(Duration.ofMillis(readTimeoutMillis));
+        if(acceptCompressed)
+            request.header("accept-encoding", "gzip, deflate");
+        if(requestJson != null) {
+            request.header("content-type", "application/json");
+            request.method(method, HttpRequest.BodyPublishers.ofString(requestJson));
+        }
+        else {
+            request.method(method, HttpRequest.BodyPublishers.noBody());
+        }
+
+        HttpClient[] group = clientsFor(connectTimeoutMillis);
+        HttpClient client = group[Math.floorMod(next.getAndIncrement(), group.length)];
+        java.net.http.HttpResponse<byte[]> response;
+        try {
+            response = client.send(request.build(), java.net.http.HttpResponse.BodyHandlers.ofByteArray());
+        }
+        catch(HttpTimeoutException e) {
+            throw new java.net.SocketTimeoutException(e.getMessage());
+        }
+        catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for response", e);
+        }
+
+        if(response.version() == HttpClient.Version.HTTP_2) http2Responses.increment();
+        else http1Responses.increment();
+
+        // HTTP/2 header names are lower case, the tests look them up as "Location"
+        Map<String, List<String>> headers = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        headers.putAll(response.headers().map());
+
+        byte[] raw = response.body();
+        TestServer.bytesReceived.addAndGet(raw.length);
+        String encoding = response.headers().firstValue("content-encoding").orElse(null);
+        // same bodies as HttpURLConnection: "" when a success has none, null when an error status has none
+        int status = response.statusCode();
+        String body = raw.length > 0 ? new String(decode(raw, encoding)) : status >= 400 ? null : "";
+        return new HttpResponse(status, headers, body);
+    }
+
+    private static byte[] decode(byte[] raw, String encoding) throws IOException {
+        InputStream in;
+        if("gzip".equalsIgnoreCase(encoding)) in = new GZIPInputStream(new ByteArrayInputStream(raw));
+        else if("deflate".equalsIgnoreCase(encoding)) in = new InflaterInputStream(new ByteArrayInputStream(raw));
+        else return raw;
+        ByteArrayOutputStream out = new ByteArrayOutputStream(raw.length * 4);
+        in.transferTo(out);
+        return out.toByteArray();
+    }
+
+    /**
+     * @return Number of connections requests are multiplexed over, per connect timeout
+     */
+    public int getConnections() {
+        return connections;
+    }
+
+    @Override
+    public String toString() {
+        return "Http2Transport{" +
+                "connections=" + connections +
+                ", connectTimeouts=" + clients.keySet() +
+                ", http2Responses=" + http2Responses.sum() +
+                ", http1Responses=" + http1Responses.sum() +
+                '}';
+    }
+}
@@ -0,0 +1,267 @@
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadInfo;
+import java.lang.management.ThreadMXBean;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Load driver: simulates many concurrent users against the defect server.
+ *
+ * Each simulated user runs the same session as the tests: create a user and a defect (as in
+ * TestServer.setUp), then read, update and delete them (the CRUD flow). Sessions run either on a
+ * fixed pool of platform threads, or each on its own virtual thread, so the two can be compared on
+ * the same box.
+ *
+ * Options:
+ *   --mode=virtual|platform   where sessions run (default virtual)
+ *   --users=N                 concurrent simulated users (default 10000)
+ *   --iterations=N            sessions per user (default 1)
+ *   --threads=N               platform pool size in platform mode (default 200)
+ *   --transport=http1|h2      HTTP/1.1 over HttpURLConnection keep-alive, or HTTP/2 (h2c) multiplexing
+ *                             via Http2Transport (default http1)
+ *   --connections=N           idle HTTP/1.1 connections kept alive per server (http.maxConnections; more
+ *                             are opened while more requests are in flight), or number of HTTP/2
+ *                             connections (default 5)
+ *   --dashboard=PORT          serve live metrics on http://localhost:PORT/ while running, see LoadDashboard
+ *
+ * Run with "gradle loadTest -PloadJdk=/path/to/jdk21 -PloadArgs='--mode=virtual --users=20000'".
+ */
+public class LoadDriver {
+
+    public enum Mode {
+        VIRTUAL, PLATFORM
+    }
+
+    /* Fields */
+
+    private final Mode mode;
+    private final int users;
+    private final int iterations;
+    private final int threads;
+
+    private final LatencyHistogram requestLatency = new LatencyHistogram();
+    private final LatencyHistogram sessionLatency = new LatencyHistogram();
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+    private final AtomicLong userIds = new AtomicLong();
+
+    public LoadDriver(Mode mode, int users, int iterations, int threads) {
+        this.mode = mode;
+        this.users = users;
+        this.iterations = iterations;
+        this.threads = threads;
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = parseOptions(args);
+        String transport = options.getOrDefault("transport", "http1");
+        int connections = Integer.parseInt(options.getOrDefault("connections", "5"));
+        if(transport.equals("h2"))
+            TestServer.transport = new Http2Transport(connections, TestServer.PREFIX);
+        else if(transport.equals("http1"))
+            System.setProperty("http.maxConnections", String.valueOf(connections)); // before the first connection
+        else
+            throw new IllegalArgumentException("Unknown transport " + transport + ", expected http1 or h2");
+        if(options.containsKey("dashboard")) {
+            LoadDashboard dashboard = new LoadDashboard(Integer.parseInt(options.get("dashboard")), connections);
+            TestServer.listeners.add(dashboard);
+            System.out.println("dashboard: http://localhost:" + dashboard.getPort() + "/");
+        }
+
+        LoadDriver driver = new LoadDriver(Mode.valueOf(options.getOrDefault("mode", "virtual").toUpperCase()),
+                                           Integer.parseInt(options.getOrDefault("users", "10000")),
+                                           Integer.parseInt(options.getOrDefault("iterations", "1")),
+                                           Integer.parseInt(options.getOrDefault("threads", "200")));
+        driver.run();
+        System.exit(0);
+    }
+
+    /**
+     * Run every simulated user to completion and print a report.
+     */
+    public void run() throws InterruptedException {
+        ExecutorService executor = mode == Mode.VIRTUAL
+                ? Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("load-user-", 0).factory())
+                : Executors.newFixedThreadPool(threads, Thread.ofPlatform().name("load-user-", 0).factory());
+        ThreadUtilization utilization = new ThreadUtilization(mode);
+        utilization.start();
+
+        long start = System.nanoTime();
+        for(int u = 0; u < users; u++) {
+            executor.submit(() -> {
+                for(int i = 0; i < iterations; i++)
+                    session();
+            });
+        }
+        executor.shutdown();
+        executor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        double seconds = (System.nanoTime() - start) / 1e9;
+        utilization.stop();
+
+        // --- REPORT --- //
+        System.out.printf("mode=%s users=%d iterations=%d%s%n", mode, users, iterations,
+                mode == Mode.PLATFORM ? " threads=" + threads : "");
+        System.out.printf("sessions: %d in %.2f s (%.1f/s)%n", sessionLatency.getCount(), seconds, sessionLatency.getCount() / seconds);
+        System.out.printf("requests: %d (%.1f/s), failures: %d%n", requests.sum(), requests.sum() / seconds, failures.sum());
+        System.out.printf("request latency: p50 %.2f ms, p99 %.2f ms, p99.9 %.2f ms%n",
+                requestLatency.percentileMicros(0.5) / 1e3, requestLatency.percentileMicros(0.99) / 1e3,
+                requestLatency.percentileMicros(0.999) / 1e3);
+        System.out.printf("session latency: p50 %.2f ms, p99 %.2f ms%n",
+                sessionLatency.percentileMicros(0.5) / 1e3, sessionLatency.percentileMicros(0.99) / 1e3);
+        System.out.println(utilization);
+        System.out.println(TestServer.transport instanceof Http2Transport ? TestServer.transport
+                : "HTTP/1.1 keep-alive cache of up to " + System.getProperty("http.maxConnections")
+                  + " idle connections per server (not a limit on open connections)");
+        System.out.println(TestServer.policy);
+        // -------------- //
+    }
+
+    /* One simulated user session: the setUp requests followed by the CRUD flow */
+    private void session() {
+        long start = System.nanoTime();
+        String userUrl = null;
+        String defectUrl = null;
+        try {
+            User user = new User().setName("load-" + userIds.incrementAndGet())
+                                  .setUserType(UserType.DEVELOPER);
+            HttpResponse response = request(TestServer.PREFIX + "/user/", "POST", user.toJson(), 201);
+            userUrl = response.getHeaders().get("Location").get(0);
+
+            Defect defect = new Defect().setSummary("Load test defect")
+                                        .setCreated(new Date())
+                                        .setCreatedByUrl(userUrl)
+                                        .setAssignedToUrl(userUrl)
+                                        .setSeverity(Severity.MINOR)
+                                        .setStatus(Status.CREATED);
+            response = request(TestServer.PREFIX + "/defect/", "POST", defect.toJson(), 201);
+            defectUrl = response.getHeaders().get("Location").get(0);
+
+            request(defectUrl, "GET", null, 200);
+            request(defectUrl, "PUT", defect.setStatus(Status.ACCEPTED).toJson(), 204);
+            request(defectUrl, "DELETE", null, 204);
+            defectUrl = null;
+            request(userUrl, "DELETE", null, 204);
+            userUrl = null;
+            sessionLatency.record(System.nanoTime() - start);
+        }
+        catch(Exception e) {
+            failures.increment();
+        }
+        finally {
+            // don't leave a failed session's entities behind, defect first due to FK constraints
+            deleteQuietly(defectUrl);
+            deleteQuietly(userUrl);
+        }
+    }
+
+    private static void deleteQuietly(String url) {
+        if(url == null) return;
+        try {
+            TestServer.makeHttpJsonRequest(url, "DELETE");
+        }
+        catch(Exception e) { /* the server will have to be reset */ }
+    }
+
+    /* Time one request, fail the session on an unexpected status */
+    private HttpResponse request(String url, String method, String json, int expectedStatus) throws Exception {
+        long start = System.nanoTime();
+        HttpResponse response = TestServer.makeHttpJsonRequest(url, method, json);
+        requestLatency.record(System.nanoTime() - start);
+        requests.increment();
+        if(response.getStatus() != expectedStatus)
+            throw new Exception(method + " " + url + " returned " + response.getStatus());
+        return response;
+    }
+
+    private static Map<String, String> parseOptions(String[] args) {
+        Map<String, String> options = new HashMap<>();
+        for(String arg : args) {
+            if(!arg.startsWith("--") || !arg.contains("="))
+                throw new IllegalArgumentException("Expected --name=value, got " + arg);
+            options.put(arg.substring(2, arg.indexOf('=')), arg.substring(arg.indexOf('=') + 1));
+        }
+        return options;
+    }
+
+    /**
+     * Samples how busy the threads that run sessions are: the carrier threads of the virtual thread
+     * scheduler in virtual mode, the pool threads in platform mode. Utilization is the CPU time the
+     * threads used, divided by the wall time they were available.
+     *
+     * Threads are found by name through ThreadMXBean, which doesn't capture stacks or stop the threads
+     * the way Thread.getAllStackTraces() does.
+     */
+    private static class ThreadUtilization {
+        private final ThreadMXBean mx = ManagementFactory.getThreadMXBean();
+        private final Mode mode;
+        private final String namePrefix;
+        private final Map<Long, Long> cpuNanos = new HashMap<>();
+        private final Map<Long, Long> firstSeen = new HashMap<>();
+        private volatile boolean running = true;
+        private Thread sampler;
+        private int peakThreads;
+
+        ThreadUtilization(Mode mode) throws InterruptedException {
+            this.mode = mode;
+            this.namePrefix = mode == Mode.VIRTUAL ? carrierNamePrefix() : "load-user-";
+        }
+
+        /* A virtual thread's toString() names its carrier, e.g. "VirtualThread[#21]/runnable@ForkJoinPool-1-worker-1" */
+        private static String carrierNamePrefix() throws InterruptedException {
+            String[] self = new String[1];
+            Thread.ofVirtual().start(() -> self[0] = Thread.currentThread().toString()).join();
+            String carrier = self[0].substring(self[0].indexOf('@') + 1);
+            return carrier.substring(0, carrier.lastIndexOf('-') + 1);
+        }
+
+        void start() {
+            sampler = Thread.ofPlatform().daemon().name("carrier-sampler").start(() -> {
+                while(running) {
+                    sample();
+                    try {
+                        Thread.sleep(100);
+                    }
+                    catch(InterruptedException e) {
+                        return;
+                    }
+                }
+            });
+        }
+
+        void stop() throws InterruptedException {
+            running = false;
+            sampler.join();
+            sample();
+        }
+
+        private synchronized void sample() {
+            long now = System.nanoTime();
+            int seen = 0;
+            for(ThreadInfo info : mx.getThreadInfo(mx.getAllThreadIds(), 0)) {
+                if(info == null || !info.getThreadName().startsWith(namePrefix)) continue;
+                seen++;
+                long cpu = mx.getThreadCpuTime(info.getThreadId());
+                if(cpu < 0) continue;
+                cpuNanos.put(info.getThreadId(), cpu);
+                firstSeen.putIfAbsent(info.getThreadId(), now);
+            }
+            peakThreads = Math.max(peakThreads, seen);
+        }
+
+        @Override
+        public synchronized String toString() {
+            long now = System.nanoTime();
+            long cpu = 0;
+            long available = 0;
+            for(Map.Entry<Long, Long> entry : cpuNanos.entrySet()) {
+                cpu += entry.getValue();
+                available += now - firstSeen.get(entry.getKey());
+            }
+            return String.format("%s threads: peak %d, utilization %.1f%% (cpu %.2f s)",
+                    mode == Mode.VIRTUAL ? "carrier" : "platform pool", peakThreads,
+                    available == 0 ? 0 : 100.0 * cpu / available, cpu / 1e9);
+        }
+    }
+}
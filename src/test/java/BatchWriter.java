@@ -0,0 +1,178 @@
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Queue up writes and send them in one batch.
+ *
+ * Writes are grouped by resource URL. Consecutive PUTs to the same URL are coalesced into the
+ * last one, since only the final state survives on the server anyway. Each URL is sent by its own
+ * task so different defects go out concurrently, while the writes to a single URL keep the order
+ * they were queued in.
+ *
+ * Note: coalescing skips the intermediate states, so the server never validates them. Don't batch
+ * writes whose individual responses you want to check (e.g. testStatus).
+ */
+public class BatchWriter {
+
+    /* A single queued write */
+    private static class Write {
+        final String method;
+        final String url;
+        String json;
+
+        Write(String method, String url, String json) {
+            this.method = method;
+            this.url = url;
+            this.json = json;
+        }
+    }
+
+    /* Fields */
+
+    private final ExecutorService executor;
+    private final Map<String, LinkedList<Write>> pending = new LinkedHashMap<>();
+    private int queued;
+    private int coalesced;
+    private int sent;
+    private boolean closed;
+
+    /**
+     * Create a batch writer
+     * @param concurrency Maximum number of URLs written to at the same time
+     */
+    public BatchWriter(int concurrency) {
+        executor = Executors.newFixedThreadPool(concurrency);
+    }
+
+    /**
+     * Queue a PUT. If the previous write queued for this URL is also a PUT, it is replaced.
+     * @param url URL of the resource
+     * @param json The JSON request body
+     * @return this writer
+     */
+    public synchronized BatchWriter put(String url, String json) {
+        queued++;
+        LinkedList<Write> writes = writesFor(url);
+        if(!writes.isEmpty() && writes.getLast().method.equals("PUT")) {
+            writes.getLast().json = json;
+            coalesced++;
+        }
+        else {
+            writes.add(new Write("PUT", url, json));
+        }
+        return this;
+    }
+
+    /**
+     * Queue a DELETE. A DELETE is never coalesced and ends any run of PUTs to the URL.
+     * @param url URL of the resource
+     * @return this writer
+     */
+    public synchronized BatchWriter delete(String url) {
+        queued++;
+        writesFor(url).add(new Write("DELETE", url, null));
+        return this;
+    }
+
+    /**
+     * Send every queued write and wait for all of them to complete.
+     * @return The responses for each URL, in the order the writes were sent.
+     * @throws IOException if any of the writes could not be sent, or the writer is closed
+     */
+    public Map<String, List<HttpResponse>> flush() throws IOException {
+        Map<String, LinkedList<Write>> batch;
+        synchronized (this) {
+            if(closed)
+                throw new IOException("BatchWriter is closed, " + pending.size() + " URLs not written");
+            batch = new LinkedHashMap<>(pending);
+            pending.clear();
+        }
+
+        // one task per URL: the task sends that URL's writes sequentially
+        Map<String, Future<List<HttpResponse>>> futures = new LinkedHashMap<>();
+        IOException failure = null;
+        for(final Map.Entry<String, LinkedList<Write>> entry : batch.entrySet()) {
+            Callable<List<HttpResponse>> task = new Callable<List<HttpResponse>>() {
+                @Override
+                public List<HttpResponse> call() throws IOException {
+                    List<HttpResponse> responses = new ArrayList<>();
+                    for(Write write : entry.getValue()) {
+                        responses.add(TestServer.makeHttpJsonRequest(write.url, write.method, write.json));
+                        // counted as they go, so writes sent before a failure still show up
+                        synchronized (BatchWriter.this) {
+                            sent++;
+                        }
+                    }
+                    return responses;
+                }
+            };
+            try {
+                futures.put(entry.getKey(), executor.submit(task));
+            }
+            catch(RejectedExecutionException e) {
+                // closed while flushing: the URLs already submitted still complete
+                failure = new IOException("BatchWriter was closed while flushing, " + entry.getKey() + " not written", e);
+                break;
+            }
+        }
+
+        Map<String, List<HttpResponse>> results = new LinkedHashMap<>();
+        for(Map.Entry<String, Future<List<HttpResponse>>> entry : futures.entrySet()) {
+            try {
+                results.put(entry.getKey(), entry.getValue().get());
+            }
+            catch(InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while flushing batch", e);
+            }
+            catch(ExecutionException e) {
+                // keep waiting for the other URLs, report the first failure at the end
+                if(failure == null)
+                    failure = new IOException("Could not write " + entry.getKey(), e.getCause());
+            }
+        }
+        if(failure != null) throw failure;
+        return results;
+    }
+
+    /**
+     * Stop the writer's threads. Writes still queued are discarded.
+     */
+    public synchronized void close() {
+        closed = true;
+        executor.shutdown();
+    }
+
+    private LinkedList<Write> writesFor(String url) {
+        LinkedList<Write> writes = pending.get(url);
+        if(writes == null) {
+            writes = new LinkedList<>();
+            pending.put(url, writes);
+        }
+        return writes;
+    }
+
+    /* Getters */
+
+    /**
+     * @return Number of writes queued since the writer was created
+     */
+    public synchronized int getQueuedCount() {
+        return queued;
+    }
+
+    /**
+     * @return Number of writes saved by coalescing
+     */
+    public synchronized int getCoalescedCount() {
+        return coalesced;
+    }
+
+    /**
+     * @return Number of requests actually sent to the server
+     */
+    public synchronized int getSentCount() {
+        return sent;
+    }
+}
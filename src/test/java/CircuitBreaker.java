@@ -0,0 +1,159 @@
+import java.io.IOException;
+
+/**
+ * Latency-aware circuit breaker for one endpoint.
+ *
+ * The breaker keeps the outcome of the last calls in a sliding window. A call is bad when it failed
+ * or when it took longer than the slow call threshold. Once the share of bad calls in a full enough
+ * window reaches the failure rate threshold the breaker opens and rejects calls. After the open
+ * duration it lets a single probe call through: a good probe closes it again, a bad one reopens it.
+ *
+ * acquire() hands out a permit naming the breaker's current generation, which changes on every state
+ * transition. Outcomes recorded with a permit from an earlier generation are ignored, so a slow call
+ * let through while the breaker was closed can't decide a later probe's verdict.
+ */
+public class CircuitBreaker {
+
+    public enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    /**
+     * Thrown instead of making a call while the breaker is open.
+     */
+    public static class OpenException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        public OpenException(String endpoint) {
+            super("Circuit open for " + endpoint + ", not sending request");
+        }
+    }
+
+    /* Fields */
+
+    private final String endpoint;
+    private final boolean[] window;
+    private int next;
+    private int calls;
+    private int bad;
+    private State state = State.CLOSED;
+    private long openedAt;
+    private boolean probing;
+    private long generation;
+
+    private int minimumCalls = 10;
+    private double failureRateThreshold = 0.5;
+    private long slowCallMillis = 5000;
+    private long openMillis = 5000;
+
+    /**
+     * Create a circuit breaker
+     * @param endpoint Name of the guarded endpoint, used in error messages
+     * @param windowSize Number of recent calls considered
+     */
+    public CircuitBreaker(String endpoint, int windowSize) {
+        this.endpoint = endpoint;
+        this.window = new boolean[windowSize];
+    }
+
+    /**
+     * Ask for permission to make a call.
+     * @return The permit to pass to record() with the call's outcome
+     * @throws OpenException if the breaker is open, or half-open with a probe already in flight
+     */
+    public synchronized long acquire() throws OpenException {
+        if(state == State.OPEN) {
+            if(System.currentTimeMillis() - openedAt < openMillis)
+                throw new OpenException(endpoint);
+            transition(State.HALF_OPEN);
+            probing = false;
+        }
+        if(state == State.HALF_OPEN) {
+            if(probing)
+                throw new OpenException(endpoint);
+            probing = true;
+        }
+        return generation;
+    }
+
+    /**
+     * Record the outcome of a call allowed by acquire().
+     * @param permit The permit acquire() returned for the call
+     * @param failed true if the call failed
+     * @param latencyMillis How long the call took
+     */
+    public synchronized void record(long permit, boolean failed, long latencyMillis) {
+        if(permit != generation) return; // acquired before the last state change
+
+        boolean isBad = failed || latencyMillis > slowCallMillis;
+
+        if(state == State.HALF_OPEN) {
+            probing = false;
+            if(isBad) {
+                open();
+            }
+            else {
+                transition(State.CLOSED);
+                reset();
+            }
+            return;
+        }
+
+        // slide the window
+        if(calls == window.length) {
+            if(window[next]) bad--;
+        }
+        else {
+            calls++;
+        }
+        window[next] = isBad;
+        if(isBad) bad++;
+        next = (next + 1) % window.length;
+
+        if(state == State.CLOSED && calls >= minimumCalls && bad >= failureRateThreshold * calls)
+            open();
+    }
+
+    private void open() {
+        transition(State.OPEN);
+        openedAt = System.currentTimeMillis();
+        reset();
+    }
+
+    private void transition(State to) {
+        state = to;
+        generation++;
+    }
+
+    private void reset() {
+        next = 0;
+        calls = 0;
+        bad = 0;
+    }
+
+    /* Getters and Setters */
+
+    public synchronized State getState() {
+        return state;
+    }
+
+    public synchronized CircuitBreaker setMinimumCalls(int minimumCalls) {
+        this.minimumCalls = minimumCalls;
+        return this;
+    }
+
+    public synchronized CircuitBreaker setFailureRateThreshold(double failureRateThreshold) {
+        this.failureRateThreshold = failureRateThreshold;
+        return this;
+    }
+
+    public synchronized CircuitBreaker setSlowCallMillis(long slowCallMillis) {
+        this.slowCallMillis = slowCallMillis;
+        return this;
+    }
+
+    public synchronized CircuitBreaker setOpenMillis(long openMillis) {
+        this.openMillis = openMillis;
+        return this;
+    }
+}
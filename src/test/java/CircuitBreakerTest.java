@@ -0,0 +1,104 @@
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * CircuitBreaker state transitions. No server needed.
+ */
+public class CircuitBreakerTest {
+
+    /* A breaker that opens after 2 bad calls out of the last 4 */
+    private static CircuitBreaker breaker(long openMillis) {
+        return new CircuitBreaker("/test", 4).setMinimumCalls(4)
+                                             .setFailureRateThreshold(0.5)
+                                             .setSlowCallMillis(100)
+                                             .setOpenMillis(openMillis);
+    }
+
+    private static void call(CircuitBreaker breaker, boolean failed, long latencyMillis) throws Exception {
+        breaker.record(breaker.acquire(), failed, latencyMillis);
+    }
+
+    @Test
+    public void testStaysClosedBelowThreshold() throws Exception {
+        CircuitBreaker breaker = breaker(60000);
+        call(breaker, true, 1);
+        call(breaker, false, 1);
+        call(breaker, false, 1);
+        call(breaker, false, 1);
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+    }
+
+    @Test
+    public void testOpensAndRejects() throws Exception {
+        CircuitBreaker breaker = breaker(60000);
+        call(breaker, false, 1);
+        call(breaker, false, 1);
+        call(breaker, true, 1);
+        call(breaker, false, 500); // slow calls count as failures
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        try {
+            breaker.acquire();
+            fail("open breaker let a call through");
+        }
+        catch(CircuitBreaker.OpenException e) { /* expected */ }
+    }
+
+    @Test
+    public void testHalfOpenProbeCloses() throws Exception {
+        CircuitBreaker breaker = breaker(0);
+        for(int i = 0; i < 4; i++)
+            call(breaker, true, 1);
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+
+        long probe = breaker.acquire();
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+        try {
+            breaker.acquire();
+            fail("half-open breaker let a second probe through");
+        }
+        catch(CircuitBreaker.OpenException e) { /* expected */ }
+        breaker.record(probe, false, 1);
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+
+        // the window starts over after closing
+        call(breaker, true, 1);
+        call(breaker, true, 1);
+        call(breaker, true, 1);
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+    }
+
+    @Test
+    public void testHalfOpenProbeReopens() throws Exception {
+        CircuitBreaker breaker = breaker(0);
+        for(int i = 0; i < 4; i++)
+            call(breaker, true, 1);
+        breaker.record(breaker.acquire(), false, 500); // a slow probe is a bad probe
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+    }
+
+    @Test
+    public void testStaleCallIgnoredWhileHalfOpen() throws Exception {
+        CircuitBreaker breaker = breaker(0);
+        long good = breaker.acquire(); // let through while closed, complete long after
+        long bad = breaker.acquire();
+        for(int i = 0; i < 4; i++)
+            call(breaker, true, 1);
+        long probe = breaker.acquire();
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+
+        // neither decides the probe's verdict, nor frees its slot
+        breaker.record(good, false, 1);
+        breaker.record(bad, true, 30000);
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+        try {
+            breaker.acquire();
+            fail("a stale call gave back the probe slot");
+        }
+        catch(CircuitBreaker.OpenException e) { /* expected */ }
+
+        breaker.record(probe, false, 1);
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+    }
+}
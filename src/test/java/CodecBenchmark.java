@@ -0,0 +1,87 @@
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.List;
+
+/**
+ * Compare the HalCodec implementations on real "_embedded" listings.
+ *
+ * The payloads are the /defect and /user listings of the running server, or files given as arguments
+ * (e.g. saved with curl). Every codec must decode them to the same objects, then each one decodes
+ * them repeatedly and the throughput is printed.
+ *
+ * Arguments: [defect listing file] [user listing file]
+ */
+public class CodecBenchmark {
+
+    private static final int WARMUP_MILLIS = 2000;
+    private static final int MEASURE_MILLIS = 3000;
+
+    public static void main(String[] args) throws Exception {
+        String defects = args.length > 0 ? read(args[0]) : fetch(TestServer.PREFIX + "/defect?size=1000");
+        String users = args.length > 1 ? read(args[1]) : fetch(TestServer.PREFIX + "/user?size=1000");
+
+        HalCodec[] codecs = {new OrgJsonHalCodec(), new GsonHalCodec(), new FastHalCodec()};
+
+        // every codec must agree with org.json before we time anything
+        List<Defect> expectedDefects = codecs[0].decodeDefects(defects);
+        List<User> expectedUsers = codecs[0].decodeUsers(users);
+        for(HalCodec codec : codecs) {
+            if(!sameDefects(codec.decodeDefects(defects), expectedDefects) || !sameUsers(codec.decodeUsers(users), expectedUsers))
+                throw new IllegalStateException(codec.name() + " decodes the payloads differently from orgjson");
+        }
+
+        System.out.printf("payloads: %d defects (%d bytes), %d users (%d bytes)%n",
+                expectedDefects.size(), defects.length(), expectedUsers.size(), users.length());
+        for(HalCodec codec : codecs) {
+            run(codec, defects, users, WARMUP_MILLIS);
+            long[] result = run(codec, defects, users, MEASURE_MILLIS);
+            double seconds = result[1] / 1e9;
+            double megabytes = (double) result[0] * (defects.length() + users.length()) / (1 << 20);
+            System.out.printf("%-8s %10.1f listings/s %8.1f MB/s%n", codec.name(), result[0] / seconds, megabytes / seconds);
+        }
+    }
+
+    /* User.equals() and Defect.equals() leave out userType and severity, so those are compared here */
+
+    private static boolean sameUsers(List<User> actual, List<User> expected) {
+        if(!actual.equals(expected)) return false;
+        for(int i = 0; i < actual.size(); i++)
+            if(actual.get(i).getUserType() != expected.get(i).getUserType()) return false;
+        return true;
+    }
+
+    private static boolean sameDefects(List<Defect> actual, List<Defect> expected) {
+        if(!actual.equals(expected)) return false;
+        for(int i = 0; i < actual.size(); i++)
+            if(actual.get(i).getSeverity() != expected.get(i).getSeverity()) return false;
+        return true;
+    }
+
+    /* decode both listings for about the given time, returns {iterations, nanos} */
+    private static long[] run(HalCodec codec, String defects, String users, int millis) throws IOException {
+        long start = System.nanoTime();
+        long end = start + millis * 1000000L;
+        long iterations = 0;
+        int sink = 0;
+        while(System.nanoTime() < end) {
+            sink += codec.decodeDefects(defects).size();
+            sink += codec.decodeUsers(users).size();
+            iterations++;
+        }
+        if(sink < 0) System.out.println(sink); // keep the JIT from dropping the work
+        return new long[] {iterations, System.nanoTime() - start};
+    }
+
+    private static String fetch(String url) throws IOException {
+        HttpResponse response = TestServer.makeHttpJsonRequest(url, "GET");
+        if(response.getStatus() != 200)
+            throw new IOException("GET " + url + " returned " + response.getStatus());
+        return response.getBody();
+    }
+
+    private static String read(String path) throws IOException {
+        return new String(Files.readAllBytes(Paths.get(path)), StandardCharsets.UTF_8);
+    }
+}
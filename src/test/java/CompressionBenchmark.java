@@ -0,0 +1,75 @@
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Compare bytes on the wire and end-to-end time of large "_embedded" listings, with and without
+ * response compression.
+ *
+ * Run against the defect server on TestServer.PREFIX, with compression enabled on the server
+ * (e.g. server.compression.enabled=true and application/hal+json in server.compression.mime-types),
+ * otherwise both runs are identical. The server should be empty, as for the tests.
+ *
+ * Arguments: [number of defects, default 1000] [rounds, default 20]
+ */
+public class CompressionBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+        String listing = TestServer.PREFIX + "/defect?size=" + count;
+
+        // --- CREATE THE LISTING --- //
+        User user = new User().setName("CompressionBenchmark").setUserType(UserType.DEVELOPER);
+        HttpResponse response = TestServer.makeHttpJsonRequest(TestServer.PREFIX + "/user/", "POST", user.toJson());
+        user.setUrl(response.getHeaders().get("Location").get(0));
+        List<String> created = new ArrayList<>();
+        for(int i = 0; i < count; i++) {
+            Defect defect = new Defect().setSummary("Benchmark defect #" + i)
+                                        .setCreated(new Date())
+                                        .setCreatedByUrl(user.getUrl())
+                                        .setAssignedToUrl(user.getUrl())
+                                        .setSeverity(Severity.MINOR)
+                                        .setStatus(Status.CREATED);
+            response = TestServer.makeHttpJsonRequest(TestServer.PREFIX + "/defect/", "POST", defect.toJson());
+            created.add(response.getHeaders().get("Location").get(0));
+        }
+        // -------------------------- //
+
+        try {
+            run("identity", false, listing, rounds);
+            run("gzip/deflate", true, listing, rounds);
+        }
+        finally {
+            for(String url : created)
+                TestServer.makeHttpJsonRequest(url, "DELETE");
+            TestServer.makeHttpJsonRequest(user.getUrl(), "DELETE");
+        }
+    }
+
+    /* Fetch and parse the listing a number of times, print bytes per request and latency */
+    private static void run(String name, boolean compressed, String listing, int rounds) throws IOException {
+        // warm up connections and the JIT
+        for(int i = 0; i < 3; i++)
+            TestServer.getJson(listing, compressed);
+
+        long[] nanos = new long[rounds];
+        long bytesBefore = TestServer.bytesReceived.get();
+        int items = 0;
+        for(int i = 0; i < rounds; i++) {
+            long start = System.nanoTime();
+            JSONObject root = TestServer.getJson(listing, compressed);
+            nanos[i] = System.nanoTime() - start;
+            items = root.getJSONObject("_embedded").getJSONArray("defect").length();
+        }
+        long bytes = (TestServer.bytesReceived.get() - bytesBefore) / rounds;
+
+        Arrays.sort(nanos);
+        System.out.printf("%-14s %6d items  %10d bytes/request  p50 %8.2f ms  p90 %8.2f ms%n",
+                name, items, bytes, nanos[rounds / 2] / 1e6, nanos[rounds * 9 / 10] / 1e6);
+    }
+}
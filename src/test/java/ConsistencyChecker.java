@@ -0,0 +1,345 @@
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.json.JSONTokener;
+
+import java.net.URLEncoder;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Randomized concurrent checker for the defect workflow rules.
+ *
+ * Each round fires a random mix of POST/PUT/DELETE requests from many threads at once and records the
+ * history of operations: what was sent, when it was invoked, when it completed and what it returned.
+ * The history is then checked against the rules the single-threaded tests check one at a time:
+ *
+ * - racing POSTs of the same user name yield exactly one 201, the rest 409
+ * - under POST/DELETE churn, a name is only created again after the previous user with that name was
+ *   deleted, and at most one user per name is left
+ * - PUTs that break a rule never succeed: REOPENED without assignedTo, assigned to a CUSTOMER,
+ *   modified before created
+ * - the defect's final state was written by a successful PUT that no other successful PUT started
+ *   after (i.e. the defect behaves like a linearizable register)
+ *
+ * Rounds are generated from the seed, which is part of every reported violation. The random values
+ * drawn don't depend on the server's answers, so a seed always generates the same rounds; how the
+ * server interleaves the concurrent requests can still differ from run to run. Request bodies are
+ * built before the threads start.
+ */
+public class ConsistencyChecker {
+
+    /**
+     * One operation in the history
+     */
+    public static class Operation {
+        final String kind;
+        final String method;
+        final String url;
+        final String body;
+        final String key;
+        volatile long invokedNanos;
+        volatile long completedNanos;
+        volatile int status;
+        volatile String location;
+
+        Operation(String kind, String method, String url, String body, String key) {
+            this.kind = kind;
+            this.method = method;
+            this.url = url;
+            this.body = body;
+            this.key = key;
+        }
+
+        boolean succeeded() {
+            return status >= 200 && status < 300;
+        }
+
+        @Override
+        public String toString() {
+            return kind + " " + method + " " + url + " -> " + status;
+        }
+    }
+
+    /* Fields */
+
+    private final long seed;
+    private final int threads;
+    private final Random random;
+    private final ExecutorService executor;
+    private final List<String> violations = new ArrayList<>();
+    private final List<String> createdUsers = new ArrayList<>();
+    private final List<String> createdDefects = new ArrayList<>();
+
+    private User developer;
+    private User customer;
+    private Defect defect;
+
+    /**
+     * Create a checker
+     * @param seed Seed for the random rounds
+     * @param threads Number of threads firing requests concurrently
+     */
+    public ConsistencyChecker(long seed, int threads) {
+        this.seed = seed;
+        this.threads = threads;
+        this.random = new Random(seed);
+        this.executor = Executors.newFixedThreadPool(threads);
+    }
+
+    /**
+     * Run the checker and clean up what it created.
+     * @param rounds Number of rounds of each scenario
+     * @return The rule violations found, empty if none
+     */
+    public List<String> run(int rounds) throws Exception {
+        try {
+            createEntities();
+            for(int round = 0; round < rounds; round++) {
+                checkDuplicateNames(round);
+                checkNameChurn(round);
+                checkDefectWrites(round);
+            }
+        }
+        finally {
+            executor.shutdown();
+            cleanUp();
+        }
+        return violations;
+    }
+
+    /* Scenario: every thread POSTs the same new user name */
+    private void checkDuplicateNames(int round) throws Exception {
+        String name = "cc-" + seed + "-dup-" + round;
+        String json = new User().setName(name).setUserType(UserType.DEVELOPER).toJson();
+        List<Operation> ops = new ArrayList<>();
+        for(int i = 0; i < threads; i++)
+            ops.add(new Operation("create-duplicate", "POST", TestServer.PREFIX + "/user/", json, name));
+        fire(ops);
+
+        int created = 0;
+        for(Operation op : ops) {
+            if(op.status == 201) created++;
+            else if(op.status != 409) violation(round, op + ", expected 201 or 409");
+        }
+        if(created != 1)
+            violation(round, threads + " racing POSTs of user " + name + " gave " + created + " 201s, expected exactly 1");
+    }
+
+    /* Scenario: random POSTs and DELETEs over a small pool of names */
+    private void checkNameChurn(int round) throws Exception {
+        String[] names = new String[3];
+        for(int i = 0; i < names.length; i++)
+            names[i] = "cc-" + seed + "-churn-" + round + "-" + i;
+
+        // first wave creates, second wave mixes creates with deletes of the first wave's users
+        List<Operation> creates = new ArrayList<>();
+        for(int i = 0; i < threads; i++) {
+            String name = names[random.nextInt(names.length)];
+            creates.add(new Operation("create", "POST", TestServer.PREFIX + "/user/",
+                    new User().setName(name).setUserType(UserType.TESTER).toJson(), name));
+        }
+        fire(creates);
+
+        // the same number of values is drawn whatever the first wave returned, so that the rounds
+        // after this one only depend on the seed
+        boolean[] deletes = new boolean[threads];
+        String[] createNames = new String[threads];
+        for(int i = 0; i < threads; i++) {
+            deletes[i] = random.nextBoolean();
+            createNames[i] = names[random.nextInt(names.length)];
+        }
+        List<Operation> mixed = new ArrayList<>();
+        for(int i = 0; i < threads; i++) {
+            Operation op = creates.get(i);
+            if(op.status == 201 && deletes[i])
+                mixed.add(new Operation("delete", "DELETE", op.location, null, op.key));
+        }
+        for(int i = 0; mixed.size() < threads; i++) {
+            String name = createNames[i];
+            mixed.add(new Operation("create", "POST", TestServer.PREFIX + "/user/",
+                    new User().setName(name).setUserType(UserType.TESTER).toJson(), name));
+        }
+        Collections.shuffle(mixed, random); // always threads operations
+        fire(mixed);
+
+        List<Operation> history = new ArrayList<>(creates);
+        history.addAll(mixed);
+        for(String name : names) {
+            // successful creates of this name, in completion order
+            List<Operation> createdOps = new ArrayList<>();
+            for(Operation op : history)
+                if(op.key.equals(name) && op.method.equals("POST") && op.status == 201) createdOps.add(op);
+            Collections.sort(createdOps, new Comparator<Operation>() {
+                @Override
+                public int compare(Operation a, Operation b) {
+                    return Long.compare(a.completedNanos, b.completedNanos);
+                }
+            });
+
+            // each create after the first needs the previous user deleted before it could have taken effect
+            for(int i = 1; i < createdOps.size(); i++) {
+                Operation previous = createdOps.get(i - 1);
+                Operation next = createdOps.get(i);
+                boolean deleted = false;
+                for(Operation op : history)
+                    if(op.method.equals("DELETE") && op.url.equals(previous.location) && op.succeeded()
+                            && op.invokedNanos < next.completedNanos) deleted = true;
+                if(!deleted)
+                    violation(round, "user " + name + " created twice without a delete in between: "
+                            + previous.location + " and " + next.location);
+            }
+
+            int remaining = countUsersNamed(name);
+            if(remaining > 1)
+                violation(round, remaining + " users named " + name + " exist");
+        }
+    }
+
+    /* Scenario: valid and invalid PUTs racing on the same defect */
+    private void checkDefectWrites(int round) throws Exception {
+        Date before = new Date(defect.getCreated().getTime() - 86400000L);
+        List<Operation> ops = new ArrayList<>();
+        for(int i = 0; i < threads * 2; i++) {
+            Defect write = copy(defect);
+            String kind;
+            switch(random.nextInt(5)) {
+                case 0:
+                    kind = "reopened-unassigned";
+                    write.setStatus(Status.REOPENED).setAssignedToUrl(null);
+                    break;
+                case 1:
+                    kind = "assigned-customer";
+                    write.setAssignedToUrl(customer.getUrl());
+                    break;
+                case 2:
+                    kind = "modified-before-created";
+                    write.setModified(before);
+                    break;
+                default:
+                    kind = "valid";
+                    Status[] statuses = {Status.CREATED, Status.ACCEPTED, Status.FIXED, Status.REOPENED, Status.CLOSED};
+                    Severity[] severities = {Severity.TRIVIAL, Severity.MINOR, Severity.MAJOR, Severity.SHOWSTOPPER};
+                    write.setStatus(statuses[random.nextInt(statuses.length)])
+                         .setSeverity(severities[random.nextInt(severities.length)])
+                         .setSummary("round " + round + " write " + i);
+            }
+            ops.add(new Operation(kind, "PUT", defect.getUrl(), write.toJson(), write.getSummary()));
+        }
+        fire(ops);
+
+        List<Operation> writes = new ArrayList<>();
+        for(Operation op : ops) {
+            if(op.kind.equals("valid")) {
+                if(op.status != 204) violation(round, op + ", expected 204");
+                else writes.add(op);
+            }
+            else if(op.succeeded()) {
+                violation(round, op + ", a " + op.kind + " write must be rejected");
+            }
+        }
+
+        // the final state must come from a successful write that no other successful write started after
+        HttpResponse response = TestServer.makeHttpJsonRequest(defect.getUrl(), "GET");
+        Defect finalState = TestServer.codec.decodeDefect(response.getBody());
+        boolean explained = writes.isEmpty();
+        for(Operation write : writes) {
+            if(!write.key.equals(finalState.getSummary())) continue;
+            boolean overwritten = false;
+            for(Operation other : writes)
+                if(other != write && other.invokedNanos > write.completedNanos) overwritten = true;
+            if(!overwritten) {
+                explained = true;
+                break;
+            }
+        }
+        if(!explained)
+            violation(round, "final state of " + defect.getUrl() + " (\"" + finalState.getSummary()
+                    + "\") is not the result of any write that could have been last");
+    }
+
+    /* Send all operations at once from the thread pool, recording invocation and completion times */
+    private void fire(List<Operation> ops) throws Exception {
+        final CountDownLatch start = new CountDownLatch(1);
+        List<Future<?>> futures = new ArrayList<>();
+        for(final Operation op : ops) {
+            futures.add(executor.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    start.await();
+                    op.invokedNanos = System.nanoTime();
+                    HttpResponse response = TestServer.makeHttpJsonRequest(op.url, op.method, op.body);
+                    op.completedNanos = System.nanoTime();
+                    op.status = response.getStatus();
+                    List<String> location = response.getHeaders() == null ? null : response.getHeaders().get("Location");
+                    if(location != null && !location.isEmpty()) op.location = location.get(0);
+                    return null;
+                }
+            }));
+        }
+        start.countDown();
+        for(Future<?> future : futures)
+            future.get();
+
+        for(Operation op : ops) {
+            if(op.location == null) continue;
+            if(op.location.contains("/defect/")) createdDefects.add(op.location);
+            else createdUsers.add(op.location);
+        }
+    }
+
+    private void createEntities() throws Exception {
+        developer = createUser(new User().setName("cc-" + seed + "-developer").setUserType(UserType.DEVELOPER));
+        customer = createUser(new User().setName("cc-" + seed + "-customer").setUserType(UserType.CUSTOMER));
+        defect = new Defect().setSummary("Consistency checker defect")
+                             .setCreated(new Date())
+                             .setCreatedByUrl(developer.getUrl())
+                             .setAssignedToUrl(developer.getUrl())
+                             .setSeverity(Severity.MINOR)
+                             .setStatus(Status.CREATED);
+        HttpResponse response = TestServer.makeHttpJsonRequest(TestServer.PREFIX + "/defect/", "POST", defect.toJson());
+        defect.setUrl(response.getHeaders().get("Location").get(0));
+        createdDefects.add(defect.getUrl());
+    }
+
+    private User createUser(User user) throws Exception {
+        HttpResponse response = TestServer.makeHttpJsonRequest(TestServer.PREFIX + "/user/", "POST", user.toJson());
+        user.setUrl(response.getHeaders().get("Location").get(0));
+        createdUsers.add(user.getUrl());
+        return user;
+    }
+
+    private int countUsersNamed(String name) throws Exception {
+        HttpResponse response = TestServer.makeHttpJsonRequest(
+                TestServer.PREFIX + "/user/search/findByName?name=" + URLEncoder.encode(name, "UTF-8"), "GET");
+        try {
+            JSONArray users = new JSONObject(new JSONTokener(response.getBody())).getJSONObject("_embedded").getJSONArray("user");
+            return users.length();
+        }
+        catch(JSONException e) {
+            return 0; // no "_embedded" when nothing matches
+        }
+    }
+
+    /* delete what was created, defects first due to FK constraints */
+    private void cleanUp() throws Exception {
+        for(String url : createdDefects)
+            TestServer.makeHttpJsonRequest(url, "DELETE");
+        for(String url : createdUsers)
+            TestServer.makeHttpJsonRequest(url, "DELETE");
+    }
+
+    private static Defect copy(Defect defect) {
+        return new Defect().setUrl(defect.getUrl())
+                           .setSummary(defect.getSummary())
+                           .setCreated(defect.getCreated())
+                           .setCreatedByUrl(defect.getCreatedByUrl())
+                           .setAssignedToUrl(defect.getAssignedToUrl())
+                           .setSeverity(defect.getSeverity())
+                           .setStatus(defect.getStatus());
+    }
+
+    private void violation(int round, String message) {
+        violations.add("seed " + seed + ", round " + round + ": " + message);
+    }
+}
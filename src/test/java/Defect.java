@@ -17,6 +17,19 @@ public class Defect {
     public static SimpleDateFormat formatter = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
 
 
+    /* SimpleDateFormat is not thread-safe, and defects are (de)serialized from many threads under load */
+    static Date parseDate(String date) throws ParseException {
+        synchronized (formatter) {
+            return formatter.parse(date);
+        }
+    }
+
+    private static String formatDate(Date date) {
+        synchronized (formatter) {
+            return formatter.format(date);
+        }
+    }
+
     /**
      * Create a list of Defect objects from a JSONArray
      * @param root
@@ -45,14 +58,14 @@ public class Defect {
         if(created == null || createdby == null || status == null){
             throw new IOException("Missing required fields for JSON");
         }
-        defect.setCreated(formatter.parse(created));
+        defect.setCreated(parseDate(created));
         defect.setStatus(Status.valueOf(status));
         defect.setCreatedByUrl(createdby);
         // ------------------------------ //
 
         // --- GET THE OPTIONAL FIELDS -- //
         if(!root.isNull("modified")){
-            defect.setModified(formatter.parse(root.getString("modified")));
+            defect.setModified(parseDate(root.getString("modified")));
         }
         if(!root.isNull("summary")){
             defect.setSummary(root.getString("summary"));
@@ -60,7 +73,7 @@ public class Defect {
         if(!root.getJSONObject("_links").getJSONObject("assignedTo").isNull("href")){
             defect.setAssignedToUrl(root.getJSONObject("_links").getJSONObject("assignedTo").getString("href"));
         }
-        if(!root.isNull("summary")){
+        if(!root.isNull("severity")){
             defect.setSeverity(Severity.valueOf(root.getString("severity")));
         }
         // ------------------------------- //
@@ -171,7 +184,7 @@ public class Defect {
         }
         // --- APPEND THE REQUIRED FIELDS --- //
         sb.append("{ \"created\" : \"");
-        sb.append(formatter.format(created));
+        sb.append(formatDate(created));
         sb.append("\" , \"status\": \"");
         sb.append(status);
         sb.append("\" , \"createdBy\": \"");
@@ -190,8 +203,8 @@ public class Defect {
         }
 
         if( modified != null){
-            sb.append("{ \"modified\" : \"");
-            sb.append(formatter.format(modified));
+            sb.append("\" , \"modified\": \"");
+            sb.append(formatDate(modified));
         }
         if(assignedToUrl != null){
             sb.append("\" , \"assignedTo\": \"");
@@ -0,0 +1,361 @@
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * Persistent local cache of User and Defect records in a memory-mapped file.
+ *
+ * The file is a header followed by fixed-size slots, one record per slot:
+ *
+ *   header: magic, version, slot size, slot count
+ *   slot:   type (0 = free, 1 = user, 2 = defect), created, modified (epoch millis),
+ *           then length-prefixed UTF-8 strings: url, and the fields of the user or defect
+ *
+ * Opening the cache maps the file and scans the slots' urls into an offset index, so a restarted
+ * client can serve reads right away. refresh() then validates the records against the server, and
+ * can run in the background while reads are served.
+ *
+ * This is a library for clients that read users and defects repeatedly; the tests and the load
+ * driver always go to the server.
+ */
+public class EntityCache {
+
+    private static final int MAGIC = 0x54534543; // "TSEC"
+    private static final int VERSION = 2;
+    private static final int HEADER_SIZE = 64;
+    private static final int SLOT_SIZE = 1024;
+    static final int INITIAL_SLOTS = 1024;
+
+    private static final byte FREE = 0;
+    private static final byte USER = 1;
+    private static final byte DEFECT = 2;
+
+    // slot layout: type, then created and modified, then the strings
+    private static final int TYPE = 0;
+    private static final int CREATED = 4;
+    private static final int MODIFIED = 12;
+    private static final int STRINGS = 20;
+
+    /**
+     * Open a cache file, creating it if needed.
+     * @param file The cache file
+     * @return The cache, ready to serve the records already in the file
+     * @throws IOException if the file exists but isn't a cache file
+     */
+    public static EntityCache open(File file) throws IOException {
+        return new EntityCache(file);
+    }
+
+    /* Fields */
+
+    private final RandomAccessFile raf;
+    private final FileChannel channel;
+    private MappedByteBuffer buffer;
+    private int slotCount;
+    private final Map<String, Integer> index = new HashMap<>();
+    private final Deque<Integer> freeSlots = new ArrayDeque<>();
+
+    private EntityCache(File file) throws IOException {
+        raf = new RandomAccessFile(file, "rw");
+        channel = raf.getChannel();
+        if(raf.length() == 0) {
+            slotCount = INITIAL_SLOTS;
+            map();
+            buffer.putInt(0, MAGIC);
+            buffer.putInt(4, VERSION);
+            buffer.putInt(8, SLOT_SIZE);
+            buffer.putInt(12, slotCount);
+        }
+        else {
+            buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE);
+            if(buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION || buffer.getInt(8) != SLOT_SIZE) {
+                raf.close();
+                throw new IOException(file + " is not an entity cache file, or has an unsupported layout");
+            }
+            slotCount = buffer.getInt(12);
+            map();
+        }
+
+        // build the offset index
+        for(int slot = 0; slot < slotCount; slot++) {
+            int offset = offsetOf(slot);
+            if(buffer.get(offset + TYPE) == FREE)
+                freeSlots.add(slot);
+            else
+                index.put(readString(offset + STRINGS, new int[1]), slot);
+        }
+    }
+
+    private void map() throws IOException {
+        buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE + (long) slotCount * SLOT_SIZE);
+    }
+
+    /* Reads */
+
+    /**
+     * @param url URL of the user
+     * @return The cached user, or null
+     */
+    public synchronized User getUser(String url) {
+        Integer slot = index.get(url);
+        return slot == null || buffer.get(offsetOf(slot) + TYPE) != USER ? null : readUser(offsetOf(slot));
+    }
+
+    /**
+     * @param url URL of the defect
+     * @return The cached defect, or null
+     */
+    public synchronized Defect getDefect(String url) {
+        Integer slot = index.get(url);
+        return slot == null || buffer.get(offsetOf(slot) + TYPE) != DEFECT ? null : readDefect(offsetOf(slot));
+    }
+
+    /**
+     * @return Every cached user
+     */
+    public synchronized List<User> users() {
+        List<User> users = new ArrayList<>();
+        for(int slot : index.values())
+            if(buffer.get(offsetOf(slot) + TYPE) == USER) users.add(readUser(offsetOf(slot)));
+        return users;
+    }
+
+    /**
+     * @return Every cached defect
+     */
+    public synchronized List<Defect> defects() {
+        List<Defect> defects = new ArrayList<>();
+        for(int slot : index.values())
+            if(buffer.get(offsetOf(slot) + TYPE) == DEFECT) defects.add(readDefect(offsetOf(slot)));
+        return defects;
+    }
+
+    /**
+     * @return Number of cached records
+     */
+    public synchronized int size() {
+        return index.size();
+    }
+
+    /* Writes */
+
+    /**
+     * Cache a user, replacing any record with the same URL
+     * @return false if the user doesn't fit in a slot and wasn't cached
+     */
+    public synchronized boolean put(User user) throws IOException {
+        return write(USER, user.getUrl(), 0, 0,
+                user.getName(), user.getImageUrl(), user.getUserType() == null ? null : user.getUserType().name());
+    }
+
+    /**
+     * Cache a defect, replacing any record with the same URL
+     * @return false if the defect doesn't fit in a slot and wasn't cached
+     */
+    public synchronized boolean put(Defect defect) throws IOException {
+        return write(DEFECT, defect.getUrl(),
+                defect.getCreated() == null ? 0 : defect.getCreated().getTime(),
+                defect.getModified() == null ? 0 : defect.getModified().getTime(),
+                defect.getSummary(),
+                defect.getStatus() == null ? null : defect.getStatus().name(),
+                defect.getSeverity() == null ? null : defect.getSeverity().name(),
+                defect.getAssignedToUrl(), defect.getCreatedByUrl());
+    }
+
+    /**
+     * Drop a record from the cache
+     * @param url URL of the user or defect
+     */
+    public synchronized void remove(String url) {
+        Integer slot = index.remove(url);
+        if(slot != null) {
+            buffer.put(offsetOf(slot) + TYPE, FREE);
+            freeSlots.add(slot);
+        }
+    }
+
+    /**
+     * Write the mapped pages to disk and close the file.
+     */
+    public synchronized void close() throws IOException {
+        buffer.force();
+        channel.close();
+        raf.close();
+    }
+
+    /* Validation against the server */
+
+    /**
+     * Bring the cache up to date with the server: cache new records, rewrite the ones whose fields
+     * changed, and drop records the server no longer has. Reads keep being served while it runs.
+     * @return Number of records added, updated or removed
+     */
+    public int refresh() throws Exception {
+        int changes = 0;
+        Set<String> seen = new HashSet<>();
+
+        for(User user : User.fromJson(fetchAll("user"))) {
+            seen.add(user.getUrl());
+            User cached = getUser(user.getUrl());
+            if(cached == null || !cached.equals(user) || cached.getUserType() != user.getUserType()) {
+                put(user);
+                changes++;
+            }
+        }
+        for(Defect defect : Defect.fromJson(fetchAll("defect"))) {
+            seen.add(defect.getUrl());
+            Defect cached = getDefect(defect.getUrl());
+            // compare the fields: PUTs don't have to set modified, and timestamps only have second resolution
+            if(cached == null || !cached.equals(defect) || cached.getSeverity() != defect.getSeverity()) {
+                put(defect);
+                changes++;
+            }
+        }
+
+        List<String> gone = new ArrayList<>();
+        synchronized (this) {
+            for(String url : index.keySet())
+                if(!seen.contains(url)) gone.add(url);
+        }
+        for(String url : gone) {
+            remove(url);
+            changes++;
+        }
+        return changes;
+    }
+
+    /**
+     * Run refresh() on a background thread.
+     * @return The thread, already started
+     */
+    public Thread refreshInBackground() {
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    refresh();
+                }
+                catch(Exception e) {
+                    System.err.println("Entity cache refresh failed: " + e.getMessage());
+                }
+            }
+        }, "entity-cache-refresh");
+        thread.setDaemon(true);
+        thread.start();
+        return thread;
+    }
+
+    /* every item of a repository, following the pages of the listing */
+    private static JSONArray fetchAll(String repo) throws IOException {
+        JSONArray all = new JSONArray();
+        for(int page = 0; ; page++) {
+            JSONObject root = TestServer.getJson(TestServer.PREFIX + "/" + repo + "?size=500&page=" + page);
+            if(root.has("_embedded")) {
+                JSONArray items = root.getJSONObject("_embedded").getJSONArray(repo);
+                for(int i = 0; i < items.length(); i++)
+                    all.put(items.get(i));
+            }
+            JSONObject pageInfo = root.optJSONObject("page");
+            if(pageInfo == null || page + 1 >= pageInfo.getInt("totalPages"))
+                return all;
+        }
+    }
+
+    /* Slot encoding */
+
+    private int offsetOf(int slot) {
+        return HEADER_SIZE + slot * SLOT_SIZE;
+    }
+
+    private boolean write(byte type, String url, long created, long modified, String... fields) throws IOException {
+        if(url == null) throw new IOException("Cannot cache an entity without a URL");
+
+        // encode first, so a record that doesn't fit leaves the slot untouched
+        byte[][] encoded = new byte[fields.length + 1][];
+        int length = STRINGS;
+        for(int i = 0; i < encoded.length; i++) {
+            String s = i == 0 ? url : fields[i - 1];
+            encoded[i] = s == null ? null : s.getBytes(StandardCharsets.UTF_8);
+            length += 2 + (encoded[i] == null ? 0 : encoded[i].length);
+        }
+        if(length > SLOT_SIZE) return false;
+
+        Integer slot = index.get(url);
+        if(slot == null) slot = allocate();
+        int offset = offsetOf(slot);
+
+        buffer.put(offset + TYPE, FREE); // invisible until fully written
+        buffer.putLong(offset + CREATED, created);
+        buffer.putLong(offset + MODIFIED, modified);
+        int at = offset + STRINGS;
+        for(byte[] bytes : encoded) {
+            // -1 encodes null
+            buffer.putShort(at, (short) (bytes == null ? -1 : bytes.length));
+            at += 2;
+            if(bytes != null) {
+                for(int i = 0; i < bytes.length; i++)
+                    buffer.put(at + i, bytes[i]);
+                at += bytes.length;
+            }
+        }
+        buffer.put(offset + TYPE, type);
+        index.put(url, slot);
+        return true;
+    }
+
+    /* take a free slot, growing the file when there is none */
+    private int allocate() throws IOException {
+        if(freeSlots.isEmpty()) {
+            int oldCount = slotCount;
+            slotCount *= 2;
+            map();
+            buffer.putInt(12, slotCount);
+            for(int slot = oldCount; slot < slotCount; slot++)
+                freeSlots.add(slot);
+        }
+        return freeSlots.poll();
+    }
+
+    /* read the string at an offset, advancing next[0] past it */
+    private String readString(int offset, int[] next) {
+        short length = buffer.getShort(offset);
+        next[0] = offset + 2 + Math.max(0, (int) length);
+        if(length < 0) return null;
+        byte[] bytes = new byte[length];
+        for(int i = 0; i < length; i++)
+            bytes[i] = buffer.get(offset + 2 + i);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private User readUser(int offset) {
+        int[] next = {offset + STRINGS};
+        User user = new User().setUrl(readString(next[0], next))
+                              .setName(readString(next[0], next))
+                              .setImageUrl(readString(next[0], next));
+        String type = readString(next[0], next);
+        return user.setUserType(type == null ? null : UserType.valueOf(type));
+    }
+
+    private Defect readDefect(int offset) {
+        int[] next = {offset + STRINGS};
+        Defect defect = new Defect().setUrl(readString(next[0], next))
+                                    .setSummary(readString(next[0], next));
+        String status = readString(next[0], next);
+        String severity = readString(next[0], next);
+        long created = buffer.getLong(offset + CREATED);
+        long modified = buffer.getLong(offset + MODIFIED);
+        return defect.setStatus(status == null ? null : Status.valueOf(status))
+                     .setSeverity(severity == null ? null : Severity.valueOf(severity))
+                     .setAssignedToUrl(readString(next[0], next))
+                     .setCreatedByUrl(readString(next[0], next))
+                     .setCreated(created == 0 ? null : new Date(created))
+                     .setModified(modified == 0 ? null : new Date(modified));
+    }
+}
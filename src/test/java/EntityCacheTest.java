@@ -0,0 +1,137 @@
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Date;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * EntityCache's file format: records survive a reopen, the file grows, removed slots are reused.
+ * No server needed.
+ */
+public class EntityCacheTest {
+
+    private static final String USER_URL = TestServer.PREFIX + "/user/1";
+    private static final String DEFECT_URL = TestServer.PREFIX + "/defect/2";
+
+    private File file;
+
+    @Before
+    public void setUp() throws IOException {
+        file = File.createTempFile("entities", ".cache");
+        file.delete(); // the cache creates it
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+    }
+
+    private static User user(int i) {
+        return new User().setUrl(TestServer.PREFIX + "/user/" + i)
+                         .setName("User " + i)
+                         .setUserType(UserType.TESTER);
+    }
+
+    @Test
+    public void testRecordsSurviveReopen() throws IOException {
+        User user = new User().setUrl(USER_URL)
+                              .setName("B\u00e4r \"quoted\"")
+                              .setImageUrl(null)
+                              .setUserType(UserType.DEVELOPER);
+        Defect defect = new Defect().setUrl(DEFECT_URL)
+                                    .setSummary("Unfortunately, Notes has Stopped...")
+                                    .setCreated(new Date(1444000000000L))
+                                    .setModified(new Date(1444000060000L))
+                                    .setCreatedByUrl(USER_URL)
+                                    .setAssignedToUrl(null)
+                                    .setSeverity(Severity.MAJOR)
+                                    .setStatus(Status.FIXED);
+
+        EntityCache cache = EntityCache.open(file);
+        assertTrue(cache.put(user));
+        assertTrue(cache.put(defect));
+        cache.close();
+
+        cache = EntityCache.open(file);
+        assertEquals(2, cache.size());
+        User cachedUser = cache.getUser(USER_URL);
+        assertEquals(user, cachedUser);
+        assertNull(cachedUser.getImageUrl());
+        assertEquals(UserType.DEVELOPER, cachedUser.getUserType());
+        Defect cachedDefect = cache.getDefect(DEFECT_URL);
+        assertEquals(defect, cachedDefect);
+        assertEquals(Severity.MAJOR, cachedDefect.getSeverity());
+        assertNull(cache.getDefect(USER_URL)); // wrong type
+        cache.close();
+    }
+
+    @Test
+    public void testGrowsAndReusesSlots() throws IOException {
+        int count = EntityCache.INITIAL_SLOTS + EntityCache.INITIAL_SLOTS / 2;
+        EntityCache cache = EntityCache.open(file);
+        for(int i = 0; i < count; i++)
+            assertTrue(cache.put(user(i)));
+        cache.remove(user(7).getUrl());
+        cache.close();
+        long grownLength = file.length();
+
+        cache = EntityCache.open(file);
+        assertEquals(count - 1, cache.size());
+        assertNull(cache.getUser(user(7).getUrl()));
+        assertEquals(user(count - 1), cache.getUser(user(count - 1).getUrl()));
+        assertEquals(user(0), cache.getUser(user(0).getUrl()));
+
+        // filling every slot, the removed one included, doesn't grow the file
+        int full = 2 * EntityCache.INITIAL_SLOTS;
+        for(int i = count; i < full + 1; i++)
+            assertTrue(cache.put(user(i)));
+        assertEquals(full, cache.size());
+        assertEquals(grownLength, file.length());
+
+        // one more record does
+        assertTrue(cache.put(user(full + 1)));
+        cache.close();
+        assertTrue(file.length() > grownLength);
+
+        cache = EntityCache.open(file);
+        assertEquals(full + 1, cache.size());
+        assertEquals(user(full + 1), cache.getUser(user(full + 1).getUrl()));
+        cache.close();
+    }
+
+    @Test
+    public void testReplaceAndOversizedRecord() throws IOException {
+        EntityCache cache = EntityCache.open(file);
+        cache.put(user(1));
+        cache.put(user(1).setName("Renamed"));
+        assertEquals(1, cache.size());
+        assertEquals("Renamed", cache.getUser(user(1).getUrl()).getName());
+
+        StringBuilder name = new StringBuilder();
+        for(int i = 0; i < 2000; i++)
+            name.append('x');
+        assertTrue(!cache.put(user(1).setName(name.toString())));
+        assertEquals("Renamed", cache.getUser(user(1).getUrl()).getName());
+        cache.close();
+    }
+
+    @Test
+    public void testRejectsOtherFiles() throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.write(new byte[128]);
+        }
+        try {
+            EntityCache.open(file);
+            fail("opened a file that isn't a cache");
+        }
+        catch(IOException e) { /* expected */ }
+    }
+}
@@ -0,0 +1,264 @@
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Hand-rolled HalCodec: a single pass over the characters of the response, specialized for the
+ * shape of the server's HAL resources. It builds no tree and uses no reflection. Values it doesn't
+ * need are skipped without being decoded.
+ */
+public class FastHalCodec implements HalCodec {
+
+    @Override
+    public String name() {
+        return "fast";
+    }
+
+    @Override
+    public User decodeUser(String json) throws IOException {
+        Scanner scanner = new Scanner(json);
+        Map<String, String> fields = scanner.entity();
+        scanner.end();
+        return HalCodecs.toUser(fields);
+    }
+
+    @Override
+    public Defect decodeDefect(String json) throws IOException {
+        Scanner scanner = new Scanner(json);
+        Map<String, String> fields = scanner.entity();
+        scanner.end();
+        return HalCodecs.toDefect(fields);
+    }
+
+    @Override
+    public List<User> decodeUsers(String json) throws IOException {
+        List<User> users = new ArrayList<>();
+        for(Map<String, String> fields : new Scanner(json).embedded("user"))
+            users.add(HalCodecs.toUser(fields));
+        return users;
+    }
+
+    @Override
+    public List<Defect> decodeDefects(String json) throws IOException {
+        List<Defect> defects = new ArrayList<>();
+        for(Map<String, String> fields : new Scanner(json).embedded("defect"))
+            defects.add(HalCodecs.toDefect(fields));
+        return defects;
+    }
+
+    /* Scanner over one JSON document */
+    private static class Scanner {
+        private final String s;
+        private int pos;
+        private boolean opened; // the last token was '{' or '[', so no ',' is due
+
+        Scanner(String s) throws IOException {
+            if(s == null) throw new IOException("No JSON to decode");
+            this.s = s;
+        }
+
+        /* the entities in "_embedded" -> rel */
+        List<Map<String, String>> embedded(String rel) throws IOException {
+            List<Map<String, String>> entities = new ArrayList<>();
+            expect('{');
+            while(nextMember()) {
+                if(!string().equals("_embedded")) {
+                    colon();
+                    skipValue();
+                    continue;
+                }
+                colon();
+                expect('{');
+                while(nextMember()) {
+                    boolean wanted = string().equals(rel);
+                    colon();
+                    if(!wanted) {
+                        skipValue();
+                        continue;
+                    }
+                    expect('[');
+                    while(nextElement())
+                        entities.add(entity());
+                }
+            }
+            end();
+            return entities;
+        }
+
+        /* scalar fields by name, link hrefs as "_links.<rel>" */
+        Map<String, String> entity() throws IOException {
+            Map<String, String> fields = new HashMap<>();
+            expect('{');
+            while(nextMember()) {
+                String name = string();
+                colon();
+                if(name.equals("_links")) {
+                    links(fields);
+                    continue;
+                }
+                char c = peek();
+                if(c == '"')
+                    fields.put(name, string());
+                else if(c == '{' || c == '[')
+                    skipValue();
+                else {
+                    String literal = literal();
+                    if(!literal.equals("null")) fields.put(name, literal);
+                }
+            }
+            return fields;
+        }
+
+        private void links(Map<String, String> fields) throws IOException {
+            expect('{');
+            while(nextMember()) {
+                String rel = string();
+                colon();
+                if(peek() != '{') {
+                    skipValue();
+                    continue;
+                }
+                expect('{');
+                while(nextMember()) {
+                    boolean href = string().equals("href");
+                    colon();
+                    if(href && peek() == '"')
+                        fields.put("_links." + rel, string());
+                    else
+                        skipValue();
+                }
+            }
+        }
+
+        /* the top-level value must be all there is */
+        void end() throws IOException {
+            while(pos < s.length() && s.charAt(pos) <= ' ')
+                pos++;
+            if(pos < s.length()) throw error("Unexpected characters after JSON");
+        }
+
+        /* Structure: after '{' or '[' was consumed, true while there is another member/element */
+
+        private boolean nextMember() throws IOException {
+            return next('}');
+        }
+
+        private boolean nextElement() throws IOException {
+            return next(']');
+        }
+
+        private boolean next(char close) throws IOException {
+            char c = peek();
+            if(c == close) {
+                pos++;
+                opened = false;
+                return false;
+            }
+            if(!opened) {
+                if(c != ',') throw error("Expected ',' or '" + close + "'");
+                pos++;
+                c = peek();
+                if(c == close) throw error("Trailing comma");
+            }
+            opened = false;
+            return true;
+        }
+
+        private void colon() throws IOException {
+            expect(':');
+        }
+
+        private void expect(char c) throws IOException {
+            if(peek() != c) throw error("Expected '" + c + "'");
+            pos++;
+            opened = c == '{' || c == '[';
+        }
+
+        private char peek() throws IOException {
+            while(pos < s.length() && s.charAt(pos) <= ' ')
+                pos++;
+            if(pos >= s.length()) throw error("Unexpected end of JSON");
+            return s.charAt(pos);
+        }
+
+        /* Values */
+
+        private String string() throws IOException {
+            expect('"');
+            int start = pos;
+            // fast path: no escapes, return a substring
+            while(pos < s.length()) {
+                char c = s.charAt(pos);
+                if(c == '"') return s.substring(start, pos++);
+                if(c == '\\') break;
+                pos++;
+            }
+            StringBuilder sb = new StringBuilder(s.substring(start, pos));
+            while(pos < s.length()) {
+                char c = s.charAt(pos++);
+                if(c == '"') return sb.toString();
+                if(c != '\\') {
+                    sb.append(c);
+                    continue;
+                }
+                if(pos >= s.length()) break;
+                char e = s.charAt(pos++);
+                switch(e) {
+                    case 'b': sb.append('\b'); break;
+                    case 'f': sb.append('\f'); break;
+                    case 'n': sb.append('\n'); break;
+                    case 'r': sb.append('\r'); break;
+                    case 't': sb.append('\t'); break;
+                    case 'u':
+                        if(pos + 4 > s.length()) throw error("Bad unicode escape");
+                        int code = 0;
+                        for(int end = pos + 4; pos < end; pos++) {
+                            int digit = Character.digit(s.charAt(pos), 16);
+                            if(digit < 0) throw error("Bad unicode escape");
+                            code = code * 16 + digit;
+                        }
+                        sb.append((char) code);
+                        break;
+                    default: sb.append(e);
+                }
+            }
+            throw error("Unterminated string");
+        }
+
+        /* number, true, false or null, as written */
+        private String literal() throws IOException {
+            int start = pos;
+            while(pos < s.length() && ",}] \t\r\n".indexOf(s.charAt(pos)) < 0)
+                pos++;
+            if(start == pos) throw error("Expected a value");
+            return s.substring(start, pos);
+        }
+
+        private void skipValue() throws IOException {
+            char c = peek();
+            if(c == '"') {
+                string();
+            }
+            else if(c == '{' || c == '[') {
+                char close = c == '{' ? '}' : ']';
+                expect(c);
+                while(next(close)) {
+                    if(close == '}') {
+                        string();
+                        colon();
+                    }
+                    skipValue();
+                }
+            }
+            else {
+                literal();
+            }
+        }
+
+        private IOException error(String message) {
+            return new IOException(message + " at position " + pos);
+        }
+    }
+}
@@ -0,0 +1,170 @@
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Shared sample user and defect for a whole test class.
+ *
+ * The fixtures are created once. While the tests run, the manager watches every request made through
+ * makeHttpJsonRequest() and remembers what was created and which fixtures were changed. After each
+ * test, restore() deletes what the test created and PUTs back the fixtures it changed. Tests that
+ * don't write anything cost nothing to clean up. If a fixture was deleted, or restoring fails, the
+ * server is wiped and the fixtures are created again.
+ *
+ * Each test gets its own copies of the fixture objects, so tests can modify them freely.
+ */
+public class FixtureManager implements RequestListener {
+
+    /* Fields */
+
+    private User user;
+    private Defect defect;
+    private final Set<String> created = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    private final Set<String> changed = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    private volatile boolean fixtureDeleted;
+    private volatile boolean restoring;
+
+    /**
+     * Wipe the server and create the fixtures.
+     */
+    public void create() throws Exception {
+        restoring = true;
+        try {
+            TestServer.resetServer();
+
+            // Create sample user.
+            user = new User().setName("Bar")
+                             .setImageUrl("http://example.com/bar")
+                             .setUserType(UserType.DEVELOPER);
+            HttpResponse response = TestServer.makeHttpJsonRequest(TestServer.PREFIX + "/user/", "POST", user.toJson());
+            user.setUrl(response.getHeaders().get("Location").get(0)); // Header from POST contains the URL of the new user
+
+            // Create sample defect.
+            defect = new Defect().setSummary("Unfortunately, Notes has Stopped...")
+                                 .setCreated(new Date())
+                                 .setCreatedByUrl(user.getUrl())
+                                 .setAssignedToUrl(user.getUrl())
+                                 .setSeverity(Severity.TRIVIAL)
+                                 .setStatus(Status.CREATED);
+            response = TestServer.makeHttpJsonRequest(TestServer.PREFIX + "/defect/", "POST", defect.toJson());
+            defect.setUrl(response.getHeaders().get("Location").get(0));
+        }
+        finally {
+            clear();
+            restoring = false;
+        }
+    }
+
+    /**
+     * Undo what the last test did to the server.
+     */
+    public void restore() throws Exception {
+        if(fixtureDeleted) {
+            create();
+            return;
+        }
+        if(created.isEmpty() && changed.isEmpty())
+            return;
+
+        restoring = true;
+        try {
+            // delete created defects before users, due to FK constraints
+            List<String> toDelete = new ArrayList<>(created);
+            Collections.sort(toDelete, new Comparator<String>() {
+                @Override
+                public int compare(String a, String b) {
+                    return Boolean.compare(!a.contains("/defect/"), !b.contains("/defect/"));
+                }
+            });
+            for(String url : toDelete) {
+                int status = TestServer.makeHttpJsonRequest(url, "DELETE").getStatus();
+                if(status != 204 && status != 404)
+                    throw new IOException("Could not delete " + url);
+            }
+
+            // put back the fixtures as they were created
+            if(changed.contains(user.getUrl()))
+                expect(204, TestServer.makeHttpJsonRequest(user.getUrl(), "PUT", user.toJson()), user.getUrl());
+            if(changed.contains(defect.getUrl()))
+                expect(204, TestServer.makeHttpJsonRequest(defect.getUrl(), "PUT", defect.toJson()), defect.getUrl());
+            clear();
+        }
+        catch(Exception e) {
+            // start over from an empty server
+            restoring = false;
+            create();
+        }
+        finally {
+            restoring = false;
+        }
+    }
+
+    /**
+     * @return A copy of the sample user, for the current test
+     */
+    public User sampleUser() {
+        return new User().setUrl(user.getUrl())
+                         .setName(user.getName())
+                         .setImageUrl(user.getImageUrl())
+                         .setUserType(user.getUserType());
+    }
+
+    /**
+     * @return A copy of the sample defect, for the current test
+     */
+    public Defect sampleDefect() {
+        return new Defect().setUrl(defect.getUrl())
+                           .setSummary(defect.getSummary())
+                           .setCreated(defect.getCreated())
+                           .setModified(defect.getModified())
+                           .setCreatedByUrl(defect.getCreatedByUrl())
+                           .setAssignedToUrl(defect.getAssignedToUrl())
+                           .setSeverity(defect.getSeverity())
+                           .setStatus(defect.getStatus());
+    }
+
+    @Override
+    public void requestStarted(String method, String url) {
+    }
+
+    @Override
+    public void requestCompleted(String method, String url, String requestJson, HttpResponse response,
+                                 long startMillis, long latencyNanos) {
+        if(restoring || method.equals("GET") || method.equals("HEAD"))
+            return;
+
+        // a failed request may or may not have reached the server, assume it did
+        int status = response == null ? 200 : response.getStatus();
+        if(status < 200 || status >= 300)
+            return;
+
+        if(method.equals("POST")) {
+            List<String> location = response == null || response.getHeaders() == null ? null : response.getHeaders().get("Location");
+            if(location != null && !location.isEmpty())
+                created.add(location.get(0));
+            else if(response == null)
+                fixtureDeleted = true; // don't know what was created, start over
+        }
+        else if(isFixture(url)) {
+            if(method.equals("DELETE"))
+                fixtureDeleted = true;
+            else
+                changed.add(url);
+        }
+    }
+
+    private boolean isFixture(String url) {
+        return user != null && (url.equals(user.getUrl()) || url.equals(defect.getUrl()));
+    }
+
+    private void clear() {
+        created.clear();
+        changed.clear();
+        fixtureDeleted = false;
+    }
+
+    private static void expect(int status, HttpResponse response, String url) throws IOException {
+        if(response.getStatus() != status)
+            throw new IOException("Could not restore " + url + ": " + response.getStatus());
+    }
+}
@@ -0,0 +1,148 @@
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * HalCodec on Gson's streaming JsonReader: no tree, no reflection, unknown fields are skipped.
+ */
+public class GsonHalCodec implements HalCodec {
+
+    @Override
+    public String name() {
+        return "gson";
+    }
+
+    @Override
+    public User decodeUser(String json) throws IOException {
+        return HalCodecs.toUser(readResource(json));
+    }
+
+    @Override
+    public Defect decodeDefect(String json) throws IOException {
+        return HalCodecs.toDefect(readResource(json));
+    }
+
+    @Override
+    public List<User> decodeUsers(String json) throws IOException {
+        List<User> users = new ArrayList<>();
+        for(Map<String, String> fields : readEmbedded(json, "user"))
+            users.add(HalCodecs.toUser(fields));
+        return users;
+    }
+
+    @Override
+    public List<Defect> decodeDefects(String json) throws IOException {
+        List<Defect> defects = new ArrayList<>();
+        for(Map<String, String> fields : readEmbedded(json, "defect"))
+            defects.add(HalCodecs.toDefect(fields));
+        return defects;
+    }
+
+    /* the fields of a single resource */
+    private static Map<String, String> readResource(String json) throws IOException {
+        JsonReader reader = new JsonReader(new StringReader(json));
+        try {
+            Map<String, String> fields = readEntity(reader);
+            end(reader);
+            return fields;
+        }
+        catch(NumberFormatException e) {
+            throw new IOException("Bad unicode escape", e); // JsonReader's only unchecked syntax error
+        }
+    }
+
+    /* the entities in "_embedded" -> rel of a collection resource */
+    private static List<Map<String, String>> readEmbedded(String json, String rel) throws IOException {
+        JsonReader reader = new JsonReader(new StringReader(json));
+        try {
+            List<Map<String, String>> entities = readEmbedded(reader, rel);
+            end(reader);
+            return entities;
+        }
+        catch(NumberFormatException e) {
+            throw new IOException("Bad unicode escape", e);
+        }
+    }
+
+    private static List<Map<String, String>> readEmbedded(JsonReader reader, String rel) throws IOException {
+        List<Map<String, String>> entities = new ArrayList<>();
+        reader.beginObject();
+        while(reader.hasNext()) {
+            if(!reader.nextName().equals("_embedded")) {
+                reader.skipValue();
+                continue;
+            }
+            reader.beginObject();
+            while(reader.hasNext()) {
+                if(!reader.nextName().equals(rel)) {
+                    reader.skipValue();
+                    continue;
+                }
+                reader.beginArray();
+                while(reader.hasNext())
+                    entities.add(readEntity(reader));
+                reader.endArray();
+            }
+            reader.endObject();
+        }
+        reader.endObject();
+        return entities;
+    }
+
+    /* the top-level value must be all there is */
+    private static void end(JsonReader reader) throws IOException {
+        if(reader.peek() != JsonToken.END_DOCUMENT) throw new IOException("Unexpected characters after JSON");
+    }
+
+    /* scalar fields by name, link hrefs as "_links.<rel>" */
+    private static Map<String, String> readEntity(JsonReader reader) throws IOException {
+        Map<String, String> fields = new HashMap<>();
+        reader.beginObject();
+        while(reader.hasNext()) {
+            String name = reader.nextName();
+            if(name.equals("_links")) {
+                readLinks(reader, fields);
+            }
+            else if(reader.peek() == JsonToken.NULL) {
+                reader.nextNull();
+            }
+            else if(reader.peek() == JsonToken.BEGIN_OBJECT || reader.peek() == JsonToken.BEGIN_ARRAY) {
+                reader.skipValue();
+            }
+            else if(reader.peek() == JsonToken.BOOLEAN) {
+                fields.put(name, String.valueOf(reader.nextBoolean()));
+            }
+            else {
+                fields.put(name, reader.nextString());
+            }
+        }
+        reader.endObject();
+        return fields;
+    }
+
+    private static void readLinks(JsonReader reader, Map<String, String> fields) throws IOException {
+        reader.beginObject();
+        while(reader.hasNext()) {
+            String rel = reader.nextName();
+            if(reader.peek() != JsonToken.BEGIN_OBJECT) {
+                reader.skipValue();
+                continue;
+            }
+            reader.beginObject();
+            while(reader.hasNext()) {
+                if(reader.nextName().equals("href") && reader.peek() == JsonToken.STRING)
+                    fields.put("_links." + rel, reader.nextString());
+                else
+                    reader.skipValue();
+            }
+            reader.endObject();
+        }
+        reader.endObject();
+    }
+}
@@ -0,0 +1,40 @@
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Decodes the server's HAL responses into User and Defect objects.
+ *
+ * Implementations: OrgJsonHalCodec (org.json trees), GsonHalCodec (Gson streaming) and FastHalCodec
+ * (hand-rolled scanner). Pick one at runtime with HalCodecs.get().
+ */
+public interface HalCodec {
+
+    /**
+     * @return Short name of the codec, as accepted by HalCodecs.forName()
+     */
+    String name();
+
+    /**
+     * @param json A single user resource
+     * @return The user
+     */
+    User decodeUser(String json) throws IOException;
+
+    /**
+     * @param json A single defect resource
+     * @return The defect
+     */
+    Defect decodeDefect(String json) throws IOException;
+
+    /**
+     * @param json A collection resource, with the users in "_embedded" -> "user"
+     * @return The users, empty if the collection is empty
+     */
+    List<User> decodeUsers(String json) throws IOException;
+
+    /**
+     * @param json A collection resource, with the defects in "_embedded" -> "defect"
+     * @return The defects, empty if the collection is empty
+     */
+    List<Defect> decodeDefects(String json) throws IOException;
+}
@@ -0,0 +1,167 @@
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+/**
+ * The three HalCodecs decode the same HAL payloads to the same objects, and all reject malformed
+ * JSON. No server needed.
+ */
+public class HalCodecTest {
+
+    private static final HalCodec[] CODECS = {new OrgJsonHalCodec(), new GsonHalCodec(), new FastHalCodec()};
+
+    private static final String USER_URL = TestServer.PREFIX + "/user/1";
+
+    private static final String USER =
+            "{\"name\" : \"Quote \\\" back\\\\slash \\/slash\\ttab \\u00e4\\u20AC\", \"userType\" : \"DEVELOPER\", " +
+            "\"imageUrl\" : \"http://example.com/a.png\", " +
+            "\"_links\" : {\"self\" : {\"href\" : \"" + USER_URL + "\"}, \"createdDefects\" : {\"href\" : \"" + USER_URL + "/created\"}}}";
+
+    private static final String USER_NULLS =
+            "{\"name\":\"Plain\",\"userType\":\"TESTER\",\"imageUrl\":null,\"_links\":{\"self\":{\"href\":\"" + TestServer.PREFIX + "/user/2\"}}}";
+
+    private static final String DEFECT =
+            "{\"created\" : \"2015-10-02 10:00:00\", \"modified\" : \"2015-10-03 11:30:00\", " +
+            "\"summary\" : \"Crashes on \\\"Save\\\"\\nsecond line\", \"status\" : \"FIXED\", \"severity\" : \"MAJOR\", " +
+            "\"_links\" : {\"self\" : {\"href\" : \"" + TestServer.PREFIX + "/defect/3\"}, " +
+            "\"createdBy\" : {\"href\" : \"" + USER_URL + "\"}, \"assignedTo\" : {\"href\" : \"" + TestServer.PREFIX + "/user/2\"}}}";
+
+    private static final String DEFECT_NULLS =
+            "{\"created\":\"2015-10-02 10:00:00\",\"modified\":null,\"summary\":null,\"status\":\"CREATED\",\"severity\":null," +
+            "\"_links\":{\"self\":{\"href\":\"" + TestServer.PREFIX + "/defect/4\"}," +
+            "\"createdBy\":{\"href\":\"" + USER_URL + "\"},\"assignedTo\":{\"href\":null}}}";
+
+    private static final String PAGE = "\"page\" : {\"size\" : 20, \"totalElements\" : 2, \"totalPages\" : 1, \"number\" : 0}";
+
+    private static String listing(String rel, String... entities) {
+        StringBuilder json = new StringBuilder("{\"_links\" : {\"self\" : {\"href\" : \"" + TestServer.PREFIX + "/" + rel + "\"}}, ");
+        json.append("\"_embedded\" : {\"").append(rel).append("\" : [");
+        for(int i = 0; i < entities.length; i++)
+            json.append(i == 0 ? "" : ", ").append(entities[i]);
+        return json.append("]}, ").append(PAGE).append("}").toString();
+    }
+
+    /* kind is "user", "defect", "users" or "defects", for the matching decode method */
+    private static Object decode(HalCodec codec, String kind, String json) throws IOException {
+        switch(kind) {
+            case "user":
+                return codec.decodeUser(json);
+            case "defect":
+                return codec.decodeDefect(json);
+            case "users":
+                return codec.decodeUsers(json);
+            default:
+                return codec.decodeDefects(json);
+        }
+    }
+
+    /* every codec's result, after checking they all agree */
+    private static List<Object> decodeAll(String kind, String json) throws IOException {
+        List<Object> results = new ArrayList<>();
+        for(HalCodec codec : CODECS) {
+            Object result = decode(codec, kind, json);
+            if(!results.isEmpty())
+                assertEquals(codec.name() + " disagrees with " + CODECS[0].name(), results.get(0), result);
+            results.add(result);
+        }
+        return results;
+    }
+
+    private static void assertAllReject(String kind, String json) {
+        for(HalCodec codec : CODECS) {
+            try {
+                decode(codec, kind, json);
+                fail(codec.name() + " accepted " + json);
+            }
+            catch(IOException e) { /* expected */ }
+        }
+    }
+
+    @Test
+    public void testUserEscapes() throws IOException {
+        for(Object result : decodeAll("user", USER)) {
+            User user = (User) result;
+            assertEquals("Quote \" back\\slash /slash\ttab \u00e4\u20ac", user.getName());
+            assertEquals(UserType.DEVELOPER, user.getUserType());
+            assertEquals("http://example.com/a.png", user.getImageUrl());
+            assertEquals(USER_URL, user.getUrl());
+        }
+    }
+
+    @Test
+    public void testUserNullImage() throws IOException {
+        for(Object result : decodeAll("user", USER_NULLS)) {
+            User user = (User) result;
+            assertNull(user.getImageUrl());
+            assertEquals(UserType.TESTER, user.getUserType());
+        }
+    }
+
+    @Test
+    public void testDefect() throws IOException {
+        for(Object result : decodeAll("defect", DEFECT)) {
+            Defect defect = (Defect) result;
+            assertEquals("Crashes on \"Save\"\nsecond line", defect.getSummary());
+            assertEquals(Status.FIXED, defect.getStatus());
+            assertEquals(Severity.MAJOR, defect.getSeverity());
+            assertEquals(USER_URL, defect.getCreatedByUrl());
+            assertEquals(TestServer.PREFIX + "/user/2", defect.getAssignedToUrl());
+        }
+    }
+
+    @Test
+    public void testDefectNullOptionalFields() throws IOException {
+        for(Object result : decodeAll("defect", DEFECT_NULLS)) {
+            Defect defect = (Defect) result;
+            assertNull(defect.getModified());
+            assertNull(defect.getSummary());
+            assertNull(defect.getSeverity());
+            assertNull(defect.getAssignedToUrl());
+            assertEquals(TestServer.PREFIX + "/defect/4", defect.getUrl());
+        }
+    }
+
+    @Test
+    public void testCollections() throws IOException {
+        for(Object result : decodeAll("users", listing("user", USER, USER_NULLS)))
+            assertEquals(2, ((List<?>) result).size());
+        for(Object result : decodeAll("defects", listing("defect", DEFECT, DEFECT_NULLS)))
+            assertEquals(2, ((List<?>) result).size());
+
+        // an empty collection has no "_embedded" at all
+        String empty = "{\"_links\" : {\"self\" : {\"href\" : \"" + TestServer.PREFIX + "/user\"}}, " + PAGE + "}";
+        for(Object result : decodeAll("users", empty))
+            assertEquals(0, ((List<?>) result).size());
+        for(Object result : decodeAll("defects", empty))
+            assertEquals(0, ((List<?>) result).size());
+    }
+
+    @Test
+    public void testRejectsMalformed() {
+        // missing commas between members and between elements
+        assertAllReject("users", "{\"a\":1 \"b\":2}");
+        assertAllReject("user", USER_NULLS.replace("\"TESTER\",", "\"TESTER\" "));
+        assertAllReject("defects", listing("defect", DEFECT, DEFECT_NULLS).replace("}}}, {", "}}} {"));
+
+        // trailing garbage after the top-level value
+        assertAllReject("user", USER + " x");
+        assertAllReject("defect", DEFECT + "}");
+        assertAllReject("users", listing("user", USER) + " {}");
+        assertAllReject("defects", "{} []");
+
+        // bad unicode escapes
+        assertAllReject("user", USER.replace("\\u00e4", "\\u00g4"));
+        assertAllReject("defects", listing("defect", DEFECT.replace("Save", "\\u+12x")));
+
+        // missing colon, unterminated string, truncated document
+        assertAllReject("user", USER_NULLS.replace("\"name\":", "\"name\" "));
+        assertAllReject("defect", DEFECT.substring(0, DEFECT.indexOf("Save")));
+        assertAllReject("defects", listing("defect", DEFECT).substring(0, 100));
+    }
+}
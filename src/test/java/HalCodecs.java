@@ -0,0 +1,76 @@
+import java.io.IOException;
+import java.text.ParseException;
+import java.util.Map;
+
+/**
+ * Runtime selection of the HalCodec, and the field mapping shared by the streaming codecs.
+ *
+ * Select the codec with -Dtestserver.codec=orgjson|gson|fast (default orgjson).
+ */
+public class HalCodecs {
+
+    /**
+     * @return The codec selected by the testserver.codec system property
+     */
+    public static HalCodec get() {
+        return forName(System.getProperty("testserver.codec", "orgjson"));
+    }
+
+    /**
+     * @param name "orgjson", "gson" or "fast"
+     * @return A codec of that name
+     */
+    public static HalCodec forName(String name) {
+        switch(name) {
+            case "orgjson":
+                return new OrgJsonHalCodec();
+            case "gson":
+                return new GsonHalCodec();
+            case "fast":
+                return new FastHalCodec();
+            default:
+                throw new IllegalArgumentException("Unknown HAL codec " + name + ", expected orgjson, gson or fast");
+        }
+    }
+
+    /* Streaming codecs collect an entity's scalar fields and link hrefs ("_links.self") into a map first */
+
+    static User toUser(Map<String, String> fields) throws IOException {
+        // --- GET THE REQUIRED FIELDS --- //
+        String name = fields.get("name");
+        String type = fields.get("userType");
+        if(name == null || type == null) throw new IOException("Missing required fields for JSON user");
+        // ------------------------------- //
+
+        return new User().setName(name)
+                         .setUserType(UserType.valueOf(type))
+                         .setImageUrl(fields.get("imageUrl"))
+                         .setUrl(fields.get("_links.self"));
+    }
+
+    static Defect toDefect(Map<String, String> fields) throws IOException {
+        // --- GET THE REQUIRED FIELDS --- //
+        String created = fields.get("created");
+        String status = fields.get("status");
+        String createdBy = fields.get("_links.createdBy");
+        if(created == null || createdBy == null || status == null)
+            throw new IOException("Missing required fields for JSON");
+        // ------------------------------- //
+
+        try {
+            String modified = fields.get("modified");
+            String severity = fields.get("severity");
+            return new Defect().setCreated(Defect.parseDate(created))
+                               .setStatus(Status.valueOf(status))
+                               .setCreatedByUrl(createdBy)
+                               .setModified(modified == null ? null : Defect.parseDate(modified))
+                               .setSummary(fields.get("summary"))
+                               .setAssignedToUrl(fields.get("_links.assignedTo"))
+                               .setSeverity(severity == null ? null : Severity.valueOf(severity))
+                               .setUrl(fields.get("_links.self"));
+        }
+        catch(ParseException e) {
+            throw new IOException("Bad date in defect JSON", e);
+        }
+    }
+}
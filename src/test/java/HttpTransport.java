@@ -0,0 +1,24 @@
+import java.io.IOException;
+
+/**
+ * Sends a single attempt of a request for makeHttpJsonRequest(). Retries, timeouts and listeners are
+ * handled around it, so every transport gets the same policy.
+ *
+ * The default, TestServer.transport, is HttpURLConnection: HTTP/1.1 with its keep-alive cache. The
+ * http.maxConnections system property caps the idle connections it keeps per server, not the number
+ * of connections open at once.
+ */
+public interface HttpTransport {
+
+    /**
+     * @param urlStr URL for request
+     * @param method HTTP method
+     * @param requestJson The JSON request body, or null
+     * @param acceptCompressed Ask the server for a gzip or deflate compressed response
+     * @param connectTimeoutMillis Connect timeout from the RequestPolicy
+     * @param readTimeoutMillis Read timeout from the RequestPolicy
+     * @return An HttpResponse with status, headers and response body (if given).
+     */
+    HttpResponse send(String urlStr, String method, String requestJson, boolean acceptCompressed,
+                      int connectTimeoutMillis, int readTimeoutMillis) throws IOException;
+}
@@ -0,0 +1,89 @@
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free latency histogram.
+ *
+ * Latencies are recorded in microseconds into log-linear buckets: one group per power of two, split
+ * into 8 linear sub-buckets, so any percentile is accurate to within 12.5%. Recording is a single
+ * atomic increment and never blocks, so it can sit on the request hot path.
+ */
+public class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    /* Fields */
+
+    private final AtomicLongArray buckets = new AtomicLongArray(64 * SUB_BUCKETS);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder totalMicros = new LongAdder();
+
+    /**
+     * Record one latency
+     * @param nanos Latency in nanoseconds
+     */
+    public void record(long nanos) {
+        long micros = Math.max(0, nanos / 1000);
+        buckets.incrementAndGet(bucketOf(micros));
+        count.increment();
+        totalMicros.add(micros);
+    }
+
+    /**
+     * @param p Percentile between 0 and 1, e.g. 0.99
+     * @return Upper bound of the bucket holding the percentile, in microseconds. 0 if nothing was recorded.
+     */
+    public long percentileMicros(double p) {
+        long total = count.sum();
+        if(total == 0) return 0;
+        long rank = (long) Math.ceil(p * total);
+        long seen = 0;
+        for(int i = 0; i < buckets.length(); i++) {
+            seen += buckets.get(i);
+            if(seen >= Math.max(1, rank))
+                return upperBoundOf(i);
+        }
+        return upperBoundOf(buckets.length() - 1);
+    }
+
+    /**
+     * @return Number of recorded latencies
+     */
+    public long getCount() {
+        return count.sum();
+    }
+
+    /**
+     * @return Mean latency in microseconds, 0 if nothing was recorded
+     */
+    public double getMeanMicros() {
+        long total = count.sum();
+        return total == 0 ? 0 : (double) totalMicros.sum() / total;
+    }
+
+    /**
+     * Forget everything recorded so far. Latencies recorded concurrently may be lost.
+     */
+    public void reset() {
+        for(int i = 0; i < buckets.length(); i++)
+            buckets.set(i, 0);
+        count.reset();
+        totalMicros.reset();
+    }
+
+    /* values below SUB_BUCKETS get a bucket each, above that 8 buckets per power of two */
+    private static int bucketOf(long micros) {
+        if(micros < SUB_BUCKETS) return (int) micros;
+        int magnitude = 63 - Long.numberOfLeadingZeros(micros);
+        int sub = (int) (micros >>> (magnitude - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (magnitude - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + sub;
+    }
+
+    private static long upperBoundOf(int bucket) {
+        if(bucket < SUB_BUCKETS) return bucket;
+        int magnitude = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        int sub = bucket % SUB_BUCKETS;
+        return ((long) (SUB_BUCKETS + sub + 1) << (magnitude - SUB_BUCKET_BITS)) - 1;
+    }
+}
@@ -0,0 +1,289 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Live status page for a running load test or test run.
+ *
+ * Observes every request as a RequestListener and serves a JSON snapshot over a small embedded HTTP
+ * server: throughput over the last 10 and 60 seconds, latency percentiles per endpoint (URL template),
+ * responses by status code, requests in flight and how busy the connections are: in-flight requests
+ * per kept-alive connection over HTTP/1.1, streams per connection over a multiplexing transport.
+ *
+ * Request threads only ever increment counters (LongAdder, AtomicLongArray, LatencyHistogram) and
+ * never take a lock. Rendering a snapshot only reads them, so polling the page doesn't slow the run;
+ * a snapshot may be off by the few requests that complete while it is taken.
+ *
+ * Enable with -Dtestserver.dashboard=PORT, or --dashboard=PORT on the load driver, then poll
+ * http://localhost:PORT/ (e.g. "watch -n1 curl -s localhost:PORT").
+ */
+public class LoadDashboard implements RequestListener {
+
+    private static final int SLOTS = 64;               // per-second throughput slots, covers the 60 s window
+    private static final int WINDOW_SECONDS = 10;      // percentiles are also given for the last window
+
+    /**
+     * Start serving the dashboard.
+     * @param port Port to listen on, loopback only
+     * @return The dashboard, to add to TestServer.listeners
+     */
+    public static LoadDashboard open(int port) throws IOException {
+        return new LoadDashboard(port, Integer.getInteger("http.maxConnections", 5));
+    }
+
+    /**
+     * Per-endpoint counters
+     */
+    private static class EndpointStats {
+        final LongAdder inFlight = new LongAdder();
+        final LatencyHistogram total = new LatencyHistogram();
+        volatile LatencyHistogram current = new LatencyHistogram();
+        volatile LatencyHistogram lastWindow = new LatencyHistogram();
+    }
+
+    /* Fields */
+
+    private final HttpServer server;
+    private final ScheduledExecutorService rotator;
+    private final long startMillis = System.currentTimeMillis();
+    private volatile int poolSize;
+
+    private final LongAdder inFlight = new LongAdder();
+    private final LongAdder completed = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final AtomicLongArray statuses = new AtomicLongArray(600);
+    private final ConcurrentMap<String, EndpointStats> endpoints = new ConcurrentHashMap<>();
+
+    /* Rolling window: slot i counts the requests completed in second slotSeconds[i] */
+    private final AtomicLongArray slotSeconds = new AtomicLongArray(SLOTS);
+    private final AtomicLongArray slotRequests = new AtomicLongArray(SLOTS);
+    private final AtomicLongArray slotErrors = new AtomicLongArray(SLOTS);
+
+    /**
+     * Create the dashboard and start serving it
+     * @param port Port to listen on (loopback only), 0 for any free port
+     * @param poolSize Connections requests are sent over: the keep-alive limit over HTTP/1.1, the
+     *                 number of connections over a multiplexing transport
+     */
+    public LoadDashboard(int port, int poolSize) throws IOException {
+        this.poolSize = poolSize;
+        ThreadFactory daemons = new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "load-dashboard");
+                thread.setDaemon(true);
+                return thread;
+            }
+        };
+
+        rotator = Executors.newSingleThreadScheduledExecutor(daemons);
+        rotator.scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                for(EndpointStats stats : endpoints.values()) {
+                    stats.lastWindow = stats.current;
+                    stats.current = new LatencyHistogram();
+                }
+            }
+        }, WINDOW_SECONDS, WINDOW_SECONDS, TimeUnit.SECONDS);
+
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        server.setExecutor(Executors.newSingleThreadExecutor(daemons));
+        server.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                byte[] body = snapshot().toString(2).getBytes(StandardCharsets.UTF_8);
+                exchange.getResponseHeaders().set("Content-Type", "application/json");
+                exchange.sendResponseHeaders(200, body.length);
+                try(OutputStream out = exchange.getResponseBody()) {
+                    out.write(body);
+                }
+            }
+        });
+        server.start();
+    }
+
+    @Override
+    public void requestStarted(String method, String url) {
+        inFlight.increment();
+        statsFor(method, url).inFlight.increment();
+    }
+
+    @Override
+    public void requestCompleted(String method, String url, String requestJson, HttpResponse response,
+                                 long startMillis, long latencyNanos) {
+        inFlight.decrement();
+        completed.increment();
+        EndpointStats stats = statsFor(method, url);
+        stats.inFlight.decrement();
+        stats.total.record(latencyNanos);
+        stats.current.record(latencyNanos);
+
+        boolean error = response == null || response.getStatus() >= 400;
+        if(response == null) failed.increment();
+        else if(response.getStatus() >= 0 && response.getStatus() < statuses.length()) statuses.incrementAndGet(response.getStatus());
+
+        long second = (startMillis + latencyNanos / 1000000) / 1000;
+        int slot = (int) (second % SLOTS);
+        long slotSecond = slotSeconds.get(slot);
+        if(slotSecond != second && slotSeconds.compareAndSet(slot, slotSecond, second)) {
+            // first request of a new second claims the slot; a racing increment may be lost
+            slotRequests.set(slot, 0);
+            slotErrors.set(slot, 0);
+        }
+        slotRequests.incrementAndGet(slot);
+        if(error) slotErrors.incrementAndGet(slot);
+    }
+
+    private EndpointStats statsFor(String method, String url) {
+        String endpoint = method + " " + UrlTemplates.template(url);
+        EndpointStats stats = endpoints.get(endpoint);
+        if(stats == null) {
+            endpoints.putIfAbsent(endpoint, new EndpointStats());
+            stats = endpoints.get(endpoint);
+        }
+        return stats;
+    }
+
+    /**
+     * @return The current figures, as served on the status page
+     */
+    public JSONObject snapshot() {
+        long now = System.currentTimeMillis();
+        long currentSecond = now / 1000;
+        double uptime = Math.max(1, now - startMillis) / 1000.0;
+
+        JSONObject json = new JSONObject();
+        json.put("uptimeSeconds", uptime);
+        json.put("completed", completed.sum());
+        json.put("inFlight", inFlight.sum());
+
+        JSONObject throughput = new JSONObject();
+        for(int seconds : new int[] {WINDOW_SECONDS, 60}) {
+            // the current second is still filling up, so the window ends at the previous one
+            double window = Math.min(seconds, Math.max(1, currentSecond - startMillis / 1000));
+            long requests = 0;
+            long errors = 0;
+            for(int slot = 0; slot < SLOTS; slot++) {
+                long second = slotSeconds.get(slot);
+                if(second < currentSecond && second >= currentSecond - seconds) {
+                    requests += slotRequests.get(slot);
+                    errors += slotErrors.get(slot);
+                }
+            }
+            JSONObject entry = new JSONObject();
+            entry.put("requestsPerSecond", requests / window);
+            entry.put("errorsPerSecond", errors / window);
+            throughput.put("last" + seconds + "s", entry);
+        }
+        json.put("throughput", throughput);
+
+        JSONObject codes = new JSONObject();
+        long total = Math.max(1, completed.sum());
+        for(int status : new int[] {400, 409, 500}) // always shown, the statuses the server's rules produce
+            codes.put(String.valueOf(status), statusEntry(statuses.get(status), total));
+        for(int status = 0; status < statuses.length(); status++) {
+            long count = statuses.get(status);
+            if(count > 0) codes.put(String.valueOf(status), statusEntry(count, total));
+        }
+        codes.put("failed", statusEntry(failed.sum(), total));
+        json.put("statuses", codes);
+
+        JSONObject endpoints = new JSONObject();
+        for(Map.Entry<String, EndpointStats> entry : this.endpoints.entrySet()) {
+            EndpointStats stats = entry.getValue();
+            JSONObject endpoint = new JSONObject();
+            endpoint.put("count", stats.total.getCount());
+            endpoint.put("inFlight", stats.inFlight.sum());
+            endpoint.put("total", percentiles(stats.total));
+            endpoint.put("last" + WINDOW_SECONDS + "s", percentiles(stats.lastWindow));
+            endpoints.put(entry.getKey(), endpoint);
+        }
+        json.put("endpoints", endpoints);
+
+        JSONObject pool = new JSONObject();
+        long busy = inFlight.sum();
+        pool.put("inFlight", busy);
+        if(TestServer.transport == TestServer.HTTP_URL_CONNECTION) {
+            // HttpURLConnection opens more connections than it keeps alive when it must, so more in
+            // flight than kept-alive connections shows up as utilization above 1
+            pool.put("transport", "http1");
+            pool.put("maxIdleConnections", poolSize);
+            pool.put("utilization", poolSize == 0 ? 0 : (double) busy / poolSize);
+        }
+        else {
+            // a multiplexing transport runs every request in flight as a stream on one of its connections
+            pool.put("transport", "multiplexed");
+            pool.put("connections", poolSize);
+            pool.put("streamsPerConnection", poolSize == 0 ? 0 : (double) busy / poolSize);
+        }
+        json.put("connectionPool", pool);
+
+        RequestPolicy policy = TestServer.policy;
+        JSONObject retries = new JSONObject();
+        retries.put("attempts", policy.getAttempts());
+        retries.put("retries", policy.getRetries());
+        retries.put("timeouts", policy.getTimeouts());
+        retries.put("circuitRejections", policy.getCircuitRejections());
+        retries.put("hedgesSent", policy.getHedgesSent());
+        json.put("policy", retries);
+        return json;
+    }
+
+    private static JSONObject statusEntry(long count, long total) {
+        JSONObject entry = new JSONObject();
+        entry.put("count", count);
+        entry.put("rate", (double) count / total);
+        return entry;
+    }
+
+    private static JSONObject percentiles(LatencyHistogram histogram) {
+        JSONObject millis = new JSONObject();
+        millis.put("count", histogram.getCount());
+        millis.put("meanMs", histogram.getMeanMicros() / 1e3);
+        millis.put("p50Ms", histogram.percentileMicros(0.5) / 1e3);
+        millis.put("p90Ms", histogram.percentileMicros(0.9) / 1e3);
+        millis.put("p99Ms", histogram.percentileMicros(0.99) / 1e3);
+        return millis;
+    }
+
+    /**
+     * @param poolSize Connections requests are sent over, e.g. when the load driver changes the pool
+     * @return This dashboard
+     */
+    public LoadDashboard setPoolSize(int poolSize) {
+        this.poolSize = poolSize;
+        return this;
+    }
+
+    /**
+     * @return Port the dashboard is served on
+     */
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    /**
+     * Stop serving the dashboard
+     */
+    public void close() {
+        server.stop(0);
+        rotator.shutdownNow();
+    }
+}
@@ -0,0 +1,77 @@
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.json.JSONTokener;
+
+import java.io.IOException;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * HalCodec on org.json trees, using User.fromJson() and Defect.fromJson().
+ */
+public class OrgJsonHalCodec implements HalCodec {
+
+    @Override
+    public String name() {
+        return "orgjson";
+    }
+
+    @Override
+    public User decodeUser(String json) throws IOException {
+        try {
+            return User.fromJson(parse(json));
+        }
+        catch(JSONException e) {
+            throw new IOException(e);
+        }
+    }
+
+    @Override
+    public Defect decodeDefect(String json) throws IOException {
+        try {
+            return Defect.fromJson(parse(json));
+        }
+        catch(JSONException | ParseException e) {
+            throw new IOException(e);
+        }
+    }
+
+    @Override
+    public List<User> decodeUsers(String json) throws IOException {
+        try {
+            JSONObject root = parse(json);
+            if(!root.has("_embedded")) return new ArrayList<>();
+            return User.fromJson(root.getJSONObject("_embedded").getJSONArray("user"));
+        }
+        catch(JSONException e) {
+            throw new IOException(e);
+        }
+    }
+
+    @Override
+    public List<Defect> decodeDefects(String json) throws IOException {
+        try {
+            JSONObject root = parse(json);
+            if(!root.has("_embedded")) return new ArrayList<>();
+            return Defect.fromJson(root.getJSONObject("_embedded").getJSONArray("defect"));
+        }
+        catch(JSONException | ParseException e) {
+            throw new IOException(e);
+        }
+    }
+
+    /* JSONObject stops at the closing brace, so check that nothing follows it */
+    private static JSONObject parse(String json) throws IOException {
+        JSONTokener tokener = new JSONTokener(json);
+        JSONObject object;
+        try {
+            object = new JSONObject(tokener);
+        }
+        catch(NumberFormatException e) {
+            throw new IOException("Bad unicode escape", e); // the tokener doesn't check escape digits
+        }
+        if(tokener.nextClean() != 0) throw new IOException("Unexpected characters after JSON");
+        return object;
+    }
+}
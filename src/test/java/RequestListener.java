@@ -0,0 +1,27 @@
+/**
+ * Observes every request made through makeHttpJsonRequest().
+ *
+ * Listeners are called on the thread making the request, so they should only hand the data off and
+ * return quickly. Register them in TestServer.listeners.
+ */
+public interface RequestListener {
+
+    /**
+     * Called before the request is sent
+     * @param method HTTP method
+     * @param url URL for request
+     */
+    void requestStarted(String method, String url);
+
+    /**
+     * Called once the request has completed or failed
+     * @param method HTTP method
+     * @param url URL for request
+     * @param requestJson The JSON request body, or null
+     * @param response The response, or null if the request failed with an exception
+     * @param startMillis Wall clock time the request was started at
+     * @param latencyNanos Time taken by the request, including retries
+     */
+    void requestCompleted(String method, String url, String requestJson, HttpResponse response,
+                          long startMillis, long latencyNanos);
+}
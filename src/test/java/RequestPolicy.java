@@ -0,0 +1,376 @@
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Timeouts, retries, circuit breaking and hedging for requests made by makeHttpJsonRequest().
+ *
+ * - Every request gets a connect and read timeout, which can be set per endpoint (URL path prefix).
+ * - Idempotent methods (GET, HEAD, PUT, DELETE, OPTIONS) are retried after an I/O error or a
+ *   502/503/504, with exponential backoff and full jitter. POSTs are never retried.
+ * - Each endpoint (first path segment, e.g. "/defect") has its own CircuitBreaker, which also counts
+ *   slow calls as failures.
+ * - GETs can be hedged: when the first attempt has not answered after the endpoint's recent p95
+ *   latency, a second identical request is sent and whichever answers first wins.
+ *
+ * Counters for all of the above are kept so the policy can be tuned under load.
+ */
+public class RequestPolicy {
+
+    /**
+     * A request attempt, made with the given timeouts
+     */
+    public interface Call {
+        HttpResponse call(int connectTimeoutMillis, int readTimeoutMillis) throws IOException;
+    }
+
+    private static final Set<String> IDEMPOTENT = new HashSet<>(Arrays.asList("GET", "HEAD", "PUT", "DELETE", "OPTIONS"));
+    private static final Set<Integer> RETRY_STATUSES = new HashSet<>(Arrays.asList(502, 503, 504));
+
+    // Set while a Call runs as the second copy of a hedged GET, see isHedge()
+    private static final ThreadLocal<Boolean> HEDGE = new ThreadLocal<>();
+
+    /* Recent latencies of an endpoint, used to pick the hedge delay */
+    private static class LatencySamples {
+        private final long[] millis = new long[128];
+        private int next;
+        private int count;
+
+        synchronized void add(long latencyMillis) {
+            millis[next] = latencyMillis;
+            next = (next + 1) % millis.length;
+            if(count < millis.length) count++;
+        }
+
+        /* returns -1 until there are enough samples to trust the percentile */
+        synchronized long percentile(double p) {
+            if(count < 20) return -1;
+            long[] sorted = Arrays.copyOf(millis, count);
+            Arrays.sort(sorted);
+            return sorted[(int) Math.min(count - 1, Math.round(p * count))];
+        }
+    }
+
+    /* Fields */
+
+    private volatile int connectTimeoutMillis = 2000;
+    private volatile int readTimeoutMillis = 15000;
+    private final Map<String, int[]> endpointTimeouts = new ConcurrentHashMap<>();
+
+    private volatile int maxAttempts = 3;
+    private volatile long baseBackoffMillis = 50;
+    private volatile long maxBackoffMillis = 2000;
+
+    private volatile boolean hedging = false;
+    private volatile double hedgePercentile = 0.95;
+
+    private volatile int breakerWindow = 50;
+    private volatile long slowCallMillis = 5000;
+
+    private final Map<String, CircuitBreaker> breakers = new ConcurrentHashMap<>();
+    private final Map<String, LatencySamples> latencies = new ConcurrentHashMap<>();
+    private final ExecutorService hedgeExecutor = Executors.newCachedThreadPool(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "hedged-get");
+            t.setDaemon(true);
+            return t;
+        }
+    });
+
+    /* Metrics */
+
+    private final AtomicLong attempts = new AtomicLong();
+    private final AtomicLong retries = new AtomicLong();
+    private final AtomicLong retriesExhausted = new AtomicLong();
+    private final AtomicLong timeouts = new AtomicLong();
+    private final AtomicLong circuitRejections = new AtomicLong();
+    private final AtomicLong hedgesSent = new AtomicLong();
+    private final AtomicLong hedgesWon = new AtomicLong();
+
+    /**
+     * Make a request according to the policy.
+     * @param method HTTP method
+     * @param urlStr URL for request
+     * @param call Makes one attempt of the request
+     * @return The response of the successful attempt, or of the last one
+     * @throws IOException if the last attempt failed, or the endpoint's circuit is open
+     */
+    public HttpResponse execute(String method, String urlStr, Call call) throws IOException {
+        String path = new URL(urlStr).getPath();
+        String endpoint = endpointOf(path);
+        int[] limits = timeoutsFor(path);
+        CircuitBreaker breaker = breakerFor(endpoint);
+        LatencySamples samples = latenciesFor(endpoint);
+        int allowedAttempts = IDEMPOTENT.contains(method) ? Math.max(1, maxAttempts) : 1;
+
+        for(int attempt = 0; ; attempt++) {
+            long permit;
+            try {
+                permit = breaker.acquire();
+            }
+            catch(CircuitBreaker.OpenException e) {
+                circuitRejections.incrementAndGet();
+                throw e;
+            }
+            attempts.incrementAndGet();
+            long start = System.nanoTime();
+            boolean lastAttempt = attempt + 1 >= allowedAttempts;
+            boolean recorded = false;
+            try {
+                HttpResponse response = hedging && method.equals("GET")
+                        ? hedged(call, limits, samples.percentile(hedgePercentile))
+                        : call.call(limits[0], limits[1]);
+                long latency = (System.nanoTime() - start) / 1000000;
+                boolean retryable = RETRY_STATUSES.contains(response.getStatus());
+                breaker.record(permit, retryable, latency);
+                recorded = true;
+                samples.add(latency);
+                if(!retryable)
+                    return response;
+                if(lastAttempt) {
+                    if(allowedAttempts > 1) retriesExhausted.incrementAndGet();
+                    return response;
+                }
+            }
+            catch(IOException e) {
+                breaker.record(permit, true, (System.nanoTime() - start) / 1000000);
+                recorded = true;
+                if(e instanceof SocketTimeoutException) timeouts.incrementAndGet();
+                if(lastAttempt) {
+                    if(allowedAttempts > 1) retriesExhausted.incrementAndGet();
+                    throw e;
+                }
+            }
+            finally {
+                // e.g. a RuntimeException from the transport: count it as a failure, so that a
+                // half-open breaker's probe slot is always given back
+                if(!recorded) breaker.record(permit, true, (System.nanoTime() - start) / 1000000);
+            }
+            retries.incrementAndGet();
+            backoff(attempt);
+        }
+    }
+
+    /* Send the request, and a second copy if the first hasn't answered after delayMillis */
+    private HttpResponse hedged(final Call call, final int[] timeouts, long delayMillis) throws IOException {
+        if(delayMillis < 0)
+            return call.call(timeouts[0], timeouts[1]);
+
+        CompletionService<HttpResponse> completion = new ExecutorCompletionService<>(hedgeExecutor);
+        List<Future<HttpResponse>> futures = new ArrayList<>(2);
+        futures.add(completion.submit(copy(call, timeouts, false)));
+        try {
+            Future<HttpResponse> done = completion.poll(delayMillis, TimeUnit.MILLISECONDS);
+            if(done == null) {
+                hedgesSent.incrementAndGet();
+                futures.add(completion.submit(copy(call, timeouts, true)));
+            }
+
+            // return the first successful answer, fail only if every copy failed
+            IOException failure = null;
+            for(int outstanding = futures.size(); outstanding > 0; outstanding--) {
+                if(done == null) done = completion.take();
+                try {
+                    HttpResponse response = done.get();
+                    if(futures.size() > 1 && done == futures.get(1)) hedgesWon.incrementAndGet();
+                    return response;
+                }
+                catch(ExecutionException e) {
+                    failure = e.getCause() instanceof IOException ? (IOException) e.getCause() : new IOException(e.getCause());
+                }
+                done = null;
+            }
+            throw failure;
+        }
+        catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for response", e);
+        }
+        finally {
+            for(Future<HttpResponse> future : futures)
+                future.cancel(true);
+        }
+    }
+
+    /* one copy of a hedged GET, run on the hedge executor */
+    private static Callable<HttpResponse> copy(final Call call, final int[] timeouts, final boolean hedge) {
+        return new Callable<HttpResponse>() {
+            @Override
+            public HttpResponse call() throws IOException {
+                HEDGE.set(hedge);
+                try {
+                    return call.call(timeouts[0], timeouts[1]);
+                }
+                finally {
+                    HEDGE.remove();
+                }
+            }
+        };
+    }
+
+    /**
+     * @return true when called from a Call running as the second copy of a hedged GET
+     */
+    static boolean isHedge() {
+        return Boolean.TRUE.equals(HEDGE.get());
+    }
+
+    /* Sleep before the next attempt: random in [0, min(max, base * 2^attempt)] */
+    private void backoff(int attempt) throws IOException {
+        long cap = Math.min(maxBackoffMillis, baseBackoffMillis << Math.min(attempt, 20));
+        try {
+            Thread.sleep(ThreadLocalRandom.current().nextLong(cap + 1));
+        }
+        catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted during retry backoff", e);
+        }
+    }
+
+    /**
+     * @param path URL path
+     * @return The endpoint the path belongs to, its first path segment (e.g. "/user")
+     */
+    public static String endpointOf(String path) {
+        if(path == null || path.length() <= 1) return "/";
+        int end = path.indexOf('/', 1);
+        return end < 0 ? path : path.substring(0, end);
+    }
+
+    /**
+     * @param path URL path
+     * @return {connect, read} timeouts in milliseconds for the longest matching endpoint prefix
+     */
+    public int[] timeoutsFor(String path) {
+        int[] best = null;
+        int bestLength = -1;
+        for(Map.Entry<String, int[]> entry : endpointTimeouts.entrySet()) {
+            if(path.startsWith(entry.getKey()) && entry.getKey().length() > bestLength) {
+                best = entry.getValue();
+                bestLength = entry.getKey().length();
+            }
+        }
+        return best != null ? best : new int[] {connectTimeoutMillis, readTimeoutMillis};
+    }
+
+    /**
+     * @param endpoint The endpoint, as returned by endpointOf()
+     * @return The endpoint's circuit breaker
+     */
+    public CircuitBreaker breakerFor(String endpoint) {
+        CircuitBreaker breaker = breakers.get(endpoint);
+        if(breaker == null) {
+            breakers.putIfAbsent(endpoint, new CircuitBreaker(endpoint, breakerWindow).setSlowCallMillis(slowCallMillis));
+            breaker = breakers.get(endpoint);
+        }
+        return breaker;
+    }
+
+    private LatencySamples latenciesFor(String endpoint) {
+        LatencySamples samples = latencies.get(endpoint);
+        if(samples == null) {
+            latencies.putIfAbsent(endpoint, new LatencySamples());
+            samples = latencies.get(endpoint);
+        }
+        return samples;
+    }
+
+    /* Setters */
+
+    public RequestPolicy setTimeouts(int connectTimeoutMillis, int readTimeoutMillis) {
+        this.connectTimeoutMillis = connectTimeoutMillis;
+        this.readTimeoutMillis = readTimeoutMillis;
+        return this;
+    }
+
+    /**
+     * Set the timeouts of every URL whose path starts with the given prefix
+     * @param pathPrefix e.g. "/user/search"
+     */
+    public RequestPolicy setTimeouts(String pathPrefix, int connectTimeoutMillis, int readTimeoutMillis) {
+        endpointTimeouts.put(pathPrefix, new int[] {connectTimeoutMillis, readTimeoutMillis});
+        return this;
+    }
+
+    /**
+     * @param maxAttempts Attempts for idempotent requests, including the first. 1 disables retries.
+     */
+    public RequestPolicy setMaxAttempts(int maxAttempts) {
+        this.maxAttempts = maxAttempts;
+        return this;
+    }
+
+    public RequestPolicy setBackoff(long baseBackoffMillis, long maxBackoffMillis) {
+        this.baseBackoffMillis = baseBackoffMillis;
+        this.maxBackoffMillis = maxBackoffMillis;
+        return this;
+    }
+
+    /**
+     * @param hedging Hedge GETs that are slower than the given latency percentile of their endpoint
+     * @param hedgePercentile e.g. 0.95
+     */
+    public RequestPolicy setHedging(boolean hedging, double hedgePercentile) {
+        this.hedging = hedging;
+        this.hedgePercentile = hedgePercentile;
+        return this;
+    }
+
+    /**
+     * Configure circuit breakers created from now on
+     * @param window Number of recent calls considered
+     * @param slowCallMillis Calls slower than this count as failures
+     */
+    public RequestPolicy setCircuitBreaker(int window, long slowCallMillis) {
+        this.breakerWindow = window;
+        this.slowCallMillis = slowCallMillis;
+        return this;
+    }
+
+    /* Metrics getters */
+
+    public long getAttempts() {
+        return attempts.get();
+    }
+
+    public long getRetries() {
+        return retries.get();
+    }
+
+    public long getRetriesExhausted() {
+        return retriesExhausted.get();
+    }
+
+    public long getTimeouts() {
+        return timeouts.get();
+    }
+
+    public long getCircuitRejections() {
+        return circuitRejections.get();
+    }
+
+    public long getHedgesSent() {
+        return hedgesSent.get();
+    }
+
+    public long getHedgesWon() {
+        return hedgesWon.get();
+    }
+
+    @Override
+    public String toString() {
+        return "RequestPolicy{" +
+                "attempts=" + attempts +
+                ", retries=" + retries +
+                ", retriesExhausted=" + retriesExhausted +
+                ", timeouts=" + timeouts +
+                ", circuitRejections=" + circuitRejections +
+                ", hedgesSent=" + hedgesSent +
+                ", hedgesWon=" + hedgesWon +
+                '}';
+    }
+}
@@ -0,0 +1,151 @@
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * RequestPolicy retries, circuit breaking and hedging, with scripted attempts instead of a server.
+ */
+public class RequestPolicyTest {
+
+    private static final String URL = TestServer.PREFIX + "/defect/1";
+
+    /* Answers each attempt with the next scripted status; -1 throws an IOException */
+    private static class Script implements RequestPolicy.Call {
+        final Deque<Integer> statuses;
+        final AtomicInteger calls = new AtomicInteger();
+
+        Script(Integer... statuses) {
+            this.statuses = new ArrayDeque<>(Arrays.asList(statuses));
+        }
+
+        @Override
+        public HttpResponse call(int connectTimeoutMillis, int readTimeoutMillis) throws IOException {
+            calls.incrementAndGet();
+            int status = statuses.size() > 1 ? statuses.poll() : statuses.peek();
+            if(status == -1)
+                throw new IOException("scripted failure");
+            return new HttpResponse(status, null, null);
+        }
+    }
+
+    private static RequestPolicy policy() {
+        return new RequestPolicy().setMaxAttempts(4).setBackoff(0, 0);
+    }
+
+    @Test
+    public void testPostIsNotRetried() throws Exception {
+        RequestPolicy policy = policy();
+        Script script = new Script(503, 200);
+        assertEquals(503, policy.execute("POST", URL, script).getStatus());
+
+        script = new Script(-1, 200);
+        try {
+            policy.execute("POST", URL, script);
+            fail("POST should not have been retried");
+        }
+        catch(IOException e) { /* expected */ }
+        assertEquals(1, script.calls.get());
+        assertEquals(0, policy.getRetries());
+    }
+
+    @Test
+    public void testRetriesGatewayErrors() throws Exception {
+        RequestPolicy policy = policy();
+        Script script = new Script(502, 503, 504, 200);
+        assertEquals(200, policy.execute("PUT", URL, script).getStatus());
+        assertEquals(4, script.calls.get());
+        assertEquals(3, policy.getRetries());
+        assertEquals(0, policy.getRetriesExhausted());
+
+        // other errors are answers, not failures
+        script = new Script(500, 200);
+        assertEquals(500, policy.execute("GET", URL, script).getStatus());
+        assertEquals(1, script.calls.get());
+    }
+
+    @Test
+    public void testRetriesIOException() throws Exception {
+        RequestPolicy policy = policy();
+        Script script = new Script(-1, -1, 200);
+        assertEquals(200, policy.execute("DELETE", URL, script).getStatus());
+        assertEquals(3, script.calls.get());
+        assertEquals(2, policy.getRetries());
+    }
+
+    @Test
+    public void testRetriesExhausted() throws Exception {
+        RequestPolicy policy = policy();
+        assertEquals(503, policy.execute("GET", URL, new Script(503)).getStatus());
+        assertEquals(1, policy.getRetriesExhausted());
+
+        try {
+            policy.execute("GET", URL, new Script(-1));
+            fail("expected the last IOException");
+        }
+        catch(IOException e) { /* expected */ }
+        assertEquals(2, policy.getRetriesExhausted());
+        assertEquals(8, policy.getAttempts());
+    }
+
+    @Test
+    public void testProbeReleasedAfterRuntimeException() throws Exception {
+        RequestPolicy policy = policy();
+        policy.breakerFor("/defect").setMinimumCalls(1).setOpenMillis(0);
+        try {
+            policy.execute("POST", URL, new Script(-1));
+            fail("expected the IOException");
+        }
+        catch(IOException e) { /* expected */ }
+        assertEquals(CircuitBreaker.State.OPEN, policy.breakerFor("/defect").getState());
+
+        // the probe fails with an unchecked exception...
+        try {
+            policy.execute("POST", URL, new RequestPolicy.Call() {
+                @Override
+                public HttpResponse call(int connectTimeoutMillis, int readTimeoutMillis) {
+                    throw new IllegalStateException("scripted failure");
+                }
+            });
+            fail("expected the IllegalStateException");
+        }
+        catch(IllegalStateException e) { /* expected */ }
+
+        // ...and the next call still gets to probe, and closes the breaker
+        assertEquals(200, policy.execute("POST", URL, new Script(200)).getStatus());
+        assertEquals(CircuitBreaker.State.CLOSED, policy.breakerFor("/defect").getState());
+    }
+
+    @Test
+    public void testHedgeWins() throws Exception {
+        RequestPolicy policy = policy().setHedging(true, 0.95);
+        // enough fast samples for the endpoint's p95 to be known
+        for(int i = 0; i < 20; i++)
+            policy.execute("GET", URL, new Script(200));
+
+        HttpResponse response = policy.execute("GET", URL, new RequestPolicy.Call() {
+            @Override
+            public HttpResponse call(int connectTimeoutMillis, int readTimeoutMillis) throws IOException {
+                if(!RequestPolicy.isHedge()) {
+                    try {
+                        Thread.sleep(5000);
+                    }
+                    catch(InterruptedException e) {
+                        throw new IOException("cancelled");
+                    }
+                    return new HttpResponse(200, null, "first");
+                }
+                return new HttpResponse(200, null, "hedge");
+            }
+        });
+        assertEquals("hedge", response.getBody());
+        assertEquals(1, policy.getHedgesSent());
+        assertEquals(1, policy.getHedgesWon());
+    }
+}
@@ -3,7 +3,10 @@ import org.json.JSONException;
 import org.json.JSONObject;
 import org.json.JSONTokener;
 import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Assume;
 import org.junit.Before;
+import org.junit.BeforeClass;
 import org.junit.Test;
 
 import java.io.*;
@@ -15,6 +18,13 @@ import java.util.Calendar;
 import java.util.Date;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
@@ -47,7 +57,7 @@ public class TestServer {
      * @return An HttpResponse with status, headers and response body (if given).
      * @throws IOException
      */
-    private static HttpResponse makeHttpJsonRequest(String urlStr, String method) throws IOException {
+    static HttpResponse makeHttpJsonRequest(String urlStr, String method) throws IOException {
         return makeHttpJsonRequest(urlStr, method, null);
     }
 
@@ -60,7 +70,178 @@ public class TestServer {
      * @return An HttpResponse with status, headers and response body (if given).
      * @throws IOException
      */
-    private static HttpResponse makeHttpJsonRequest(String urlStr, String method, String requestJson) throws IOException {
+    static HttpResponse makeHttpJsonRequest(final String urlStr, final String method, final String requestJson) throws IOException {
+        return execute(urlStr, method, requestJson, new RequestPolicy.Call() {
+            @Override
+            public HttpResponse call(int connectTimeoutMillis, int readTimeoutMillis) throws IOException {
+                return transport.send(urlStr, method, requestJson, true, connectTimeoutMillis, readTimeoutMillis);
+            }
+        });
+    }
+
+    /* private helper for makeHttp*Request() and getJson(): run the attempts through the policy, tell the listeners */
+    private static HttpResponse execute(String urlStr, String method, String requestJson, RequestPolicy.Call call) throws IOException {
+        for(RequestListener listener : listeners)
+            listener.requestStarted(method, urlStr);
+        long startMillis = System.currentTimeMillis();
+        long start = System.nanoTime();
+        HttpResponse response = null;
+        try {
+            response = policy.execute(method, urlStr, call);
+            return response;
+        }
+        finally {
+            long latency = System.nanoTime() - start;
+            for(RequestListener listener : listeners)
+                listener.requestCompleted(method, urlStr, requestJson, response, startMillis, latency);
+        }
+    }
+
+    /* private helper for makeHttp*Request(): a single attempt of the request */
+    private static HttpResponse sendHttpJsonRequest(String urlStr, String method, String requestJson, boolean acceptCompressed,
+                                                    int connectTimeoutMillis, int readTimeoutMillis) throws IOException {
+
+        HttpURLConnection con = openHttpJsonConnection(urlStr, method, requestJson, acceptCompressed,
+                                                       connectTimeoutMillis, readTimeoutMillis);
+
+        // Retrieve information connection
+        Map<String, List<String>> headers = con.getHeaderFields();
+        int status = con.getResponseCode();
+        String response = null;
+        try {
+            // copy JSON from output stream, or the error body for an error status
+            InputStream in = status >= 400 ? openErrorStream(con) : openResponseStream(con);
+            if(in != null) {
+                ByteArrayOutputStream responseBytes = new ByteArrayOutputStream();
+                copyStreamBuffered(in, responseBytes);
+                if(status < 400 || responseBytes.size() > 0)
+                    response = new String(responseBytes.toByteArray());
+            }
+        }
+        catch(IOException e) { /* no response body */ }
+
+        return new HttpResponse(status, headers, response);
+    }
+
+    /**
+     * Make an HTTP GET request and parse the JSON response while it is read, without buffering
+     * the whole body first. Useful for large "_embedded" listings. The request goes through the
+     * policy and the listeners like any other; with a transport other than HttpURLConnection the
+     * body is parsed after the transport has read it.
+     * @param urlStr URL for request
+     * @return The parsed JSON response body
+     * @throws IOException if the server does not answer with 200
+     */
+    static JSONObject getJson(String urlStr) throws IOException {
+        return getJson(urlStr, true);
+    }
+
+    /**
+     * Make an HTTP GET request and parse the JSON response while it is read, see getJson(String).
+     * @param urlStr URL for request
+     * @param acceptCompressed Ask the server for a gzip or deflate compressed response
+     * @return The parsed JSON response body
+     * @throws IOException if the server does not answer with 200
+     */
+    static JSONObject getJson(final String urlStr, final boolean acceptCompressed) throws IOException {
+        HttpResponse response = execute(urlStr, "GET", null, new RequestPolicy.Call() {
+            @Override
+            public HttpResponse call(int connectTimeoutMillis, int readTimeoutMillis) throws IOException {
+                HttpTransport current = transport;
+                if(current == HTTP_URL_CONNECTION)
+                    return receiveJson(urlStr, acceptCompressed, connectTimeoutMillis, readTimeoutMillis);
+                HttpResponse response = current.send(urlStr, "GET", null, acceptCompressed, connectTimeoutMillis, readTimeoutMillis);
+                if(response.getStatus() != 200 || response.getBody() == null)
+                    return response;
+                return new JsonResponse(response.getStatus(), response.getHeaders(), new JSONObject(new JSONTokener(response.getBody())));
+            }
+        });
+        if(!(response instanceof JsonResponse))
+            throw new IOException("GET " + urlStr + " returned " + response.getStatus());
+        return ((JsonResponse) response).json;
+    }
+
+    /* private helper for getJson(): a single attempt, parsing the body straight off the connection */
+    private static HttpResponse receiveJson(String urlStr, boolean acceptCompressed,
+                                            int connectTimeoutMillis, int readTimeoutMillis) throws IOException {
+        HttpURLConnection con = openHttpJsonConnection(urlStr, "GET", null, acceptCompressed, connectTimeoutMillis, readTimeoutMillis);
+        Map<String, List<String>> headers = con.getHeaderFields();
+        int status = con.getResponseCode();
+        if(status != 200) {
+            // read the error body, so the connection can go back to the keep-alive pool
+            InputStream error = openErrorStream(con);
+            if(error == null) {
+                con.disconnect();
+                return new HttpResponse(status, headers, null);
+            }
+            ByteArrayOutputStream body = new ByteArrayOutputStream();
+            try (InputStream in = error) {
+                copyStreamBuffered(in, body);
+            }
+            return new HttpResponse(status, headers, body.size() == 0 ? null : new String(body.toByteArray()));
+        }
+        try (Reader reader = new InputStreamReader(openResponseStream(con), "UTF-8")) {
+            return new JsonResponse(status, headers, new JSONObject(new JSONTokener(reader)));
+        }
+    }
+
+    /* A 200 response to getJson(), already parsed */
+    private static class JsonResponse extends HttpResponse {
+        final JSONObject json;
+
+        JsonResponse(int status, Map<String, List<String>> headers, JSONObject json) {
+            super(status, headers, null);
+            this.json = json;
+        }
+    }
+
+    // Timeouts, retries, circuit breaking and hedging applied by makeHttpJsonRequest()
+    static volatile RequestPolicy policy = new RequestPolicy();
+
+    // HTTP/1.1 over HttpURLConnection
+    static final HttpTransport HTTP_URL_CONNECTION = new HttpTransport() {
+        @Override
+        public HttpResponse send(String urlStr, String method, String requestJson, boolean acceptCompressed,
+                                 int connectTimeoutMillis, int readTimeoutMillis) throws IOException {
+            return sendHttpJsonRequest(urlStr, method, requestJson, acceptCompressed, connectTimeoutMillis, readTimeoutMillis);
+        }
+    };
+
+    // Sends the requests, HTTP_URL_CONNECTION unless replaced (e.g. by the load driver)
+    static volatile HttpTransport transport = HTTP_URL_CONNECTION;
+
+    // Observers of every request made by makeHttpJsonRequest()
+    static final List<RequestListener> listeners = new CopyOnWriteArrayList<>();
+
+    // Record mode: -Dtestserver.record=trace.jsonl logs every request for TrafficReplayer
+    // Traffic log: -Dtestserver.trafficlog=traffic.log logs sampled requests, see TrafficLog
+    // Dashboard: -Dtestserver.dashboard=PORT serves live request metrics, see LoadDashboard
+    static {
+        String recordPath = System.getProperty("testserver.record");
+        String logPath = System.getProperty("testserver.trafficlog");
+        Integer dashboardPort = Integer.getInteger("testserver.dashboard");
+        try {
+            if(recordPath != null)
+                listeners.add(TrafficRecorder.open(recordPath));
+            if(logPath != null)
+                listeners.add(TrafficLog.open(logPath));
+            if(dashboardPort != null)
+                listeners.add(LoadDashboard.open(dashboardPort));
+        }
+        catch(IOException e) {
+            throw new RuntimeException("Cannot open traffic recording, log or dashboard", e);
+        }
+    }
+
+    // Decodes HAL responses, select with -Dtestserver.codec=orgjson|gson|fast
+    static final HalCodec codec = HalCodecs.get();
+
+    // Number of response body bytes read from the network, before decompression
+    static final AtomicLong bytesReceived = new AtomicLong();
+
+    /* private helper for makeHttp*Request(): open a connection and send the request */
+    private static HttpURLConnection openHttpJsonConnection(String urlStr, String method, String requestJson, boolean acceptCompressed,
+                                                            int connectTimeoutMillis, int readTimeoutMillis) throws IOException {
 
         // Create URL object for HTTP connection
         URL url = new URL(urlStr);
@@ -68,6 +249,10 @@ public class TestServer {
         // Create HTTP connection from URL
         HttpURLConnection con = (HttpURLConnection) url.openConnection();
         con.setRequestMethod(method);
+        con.setConnectTimeout(connectTimeoutMillis);
+        con.setReadTimeout(readTimeoutMillis);
+        if(acceptCompressed)
+            con.setRequestProperty("accept-encoding", "gzip, deflate");
 
         // If the user has specified JSON for the request, configure connection, add content-type header
         // and copy JSON to output stream
@@ -76,56 +261,107 @@ public class TestServer {
             con.setRequestProperty("content-type", "application/json");
             copyStreamBuffered(new ByteArrayInputStream(requestJson.getBytes()), con.getOutputStream());
         }
+        return con;
+    }
 
-        // Retrieve information connection
-        Map<String, List<String>> headers = con.getHeaderFields();
-        int status = con.getResponseCode();
-        String response = null;
-        try {
-            // copy JSON from output stream
-            ByteArrayOutputStream responseBytes = new ByteArrayOutputStream();
-            copyStreamBuffered(con.getInputStream(), responseBytes);
-            response = new String(responseBytes.toByteArray());
+    /* private helper for makeHttp*Request(): response body stream, decoded according to Content-Encoding */
+    private static InputStream openResponseStream(HttpURLConnection con) throws IOException {
+        return decode(new CountingInputStream(con.getInputStream()), con.getContentEncoding());
+    }
+
+    /* private helper for makeHttp*Request(): error body stream of an error status, decoded, or null if there is none */
+    private static InputStream openErrorStream(HttpURLConnection con) throws IOException {
+        InputStream error = con.getErrorStream();
+        return error == null ? null : decode(new CountingInputStream(error), con.getContentEncoding());
+    }
+
+    /**
+     * Decode a response body stream according to its Content-Encoding
+     * @param in The body as received
+     * @param encoding The Content-Encoding header, or null
+     * @return A stream of the decoded body
+     * @throws IOException if the gzip header can't be read
+     */
+    static InputStream decode(InputStream in, String encoding) throws IOException {
+        if("gzip".equalsIgnoreCase(encoding))
+            return new GZIPInputStream(in, 8192);
+        if("deflate".equalsIgnoreCase(encoding))
+            return new InflaterInputStream(in, new Inflater(), 8192);
+        return in;
+    }
+
+    /* Counts the bytes read from the network into bytesReceived */
+    private static class CountingInputStream extends FilterInputStream {
+        CountingInputStream(InputStream in) {
+            super(in);
         }
-        catch(IOException e) { /* no response body */ }
 
-        return new HttpResponse(status, headers, response);
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if(b != -1) bytesReceived.incrementAndGet();
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if(n > 0) bytesReceived.addAndGet(n);
+            return n;
+        }
     }
 
-    // Sample user created during setUp
+    // Sample user and defect shared by the whole class, see FixtureManager
+    private static FixtureManager fixtures;
+
+    // This test's copies of the sample user and defect
     private User sampleUser;
     private Defect sampleDefect;
 
     /**
-     * Create a sampleUser user and defect.
-     * @throws IOException
+     * Create the sample user and defect once for the whole class.
+     * @throws Exception
      */
-    @Before
-    public void setUp() throws IOException {
-        // Create sample user.
-        sampleUser = new User().setName("Bar")
-                               .setImageUrl("http://example.com/bar")
-                               .setUserType(UserType.DEVELOPER);
-        HttpResponse response = makeHttpJsonRequest(PREFIX + "/user/", "POST", sampleUser.toJson());
-        sampleUser.setUrl(response.getHeaders().get("Location").get(0)); // Header from POST contains the URL of the new user
+    @BeforeClass
+    public static void setUpClass() throws Exception {
+        fixtures = new FixtureManager();
+        fixtures.create();
+        listeners.add(fixtures);
+    }
 
-        // Create sample defect.
-        sampleDefect = new Defect().setSummary("Unfortunately, Notes has Stopped...")
-                                   .setCreated(new Date())
-                                   .setCreatedByUrl(sampleUser.getUrl())
-                                   .setAssignedToUrl(sampleUser.getUrl())
-                                   .setSeverity(Severity.TRIVIAL)
-                                   .setStatus(Status.CREATED);
-        response = makeHttpJsonRequest(PREFIX + "/defect/", "POST", sampleDefect.toJson());
-        sampleDefect.setUrl(response.getHeaders().get("Location").get(0));
+    /**
+     * Restore server to initial state once all tests are done
+     * @throws Exception
+     */
+    @AfterClass
+    public static void tearDownClass() throws Exception {
+        listeners.remove(fixtures);
+        resetServer();
     }
 
     /**
-     * Remove all users and defects from the server: restore server to initial state
+     * Hand out copies of the sample user and defect.
+     */
+    @Before
+    public void setUp() {
+        sampleUser = fixtures.sampleUser();
+        sampleDefect = fixtures.sampleDefect();
+    }
+
+    /**
+     * Undo whatever the test changed on the server.
      * @throws Exception
      */
     @After
     public void tearDown() throws Exception {
+        fixtures.restore();
+    }
+
+    /**
+     * Remove all users and defects from the server: restore server to initial state
+     * @throws Exception
+     */
+    static void resetServer() throws Exception {
 
         String[] repos = new String[] {"defect", "user"}; // The order matters due to FK contraints
 
@@ -149,8 +385,9 @@ public class TestServer {
                     String href = items.getJSONObject(i).getJSONObject("_links").getJSONObject("self").getString("href");
 
                     // Delete the item
+                    // a 404 means a retried DELETE had already gone through
                     HttpResponse deleteResponse = makeHttpJsonRequest(href, "DELETE");
-                    if (deleteResponse.getStatus() != 204)
+                    if (deleteResponse.getStatus() != 204 && deleteResponse.getStatus() != 404)
                         throw new Exception("Could not delete " + href + ". Please restart server.");
                 }
             }
@@ -199,7 +436,7 @@ public class TestServer {
     @Test
     public void testReadAllUser() throws IOException {
         HttpResponse response = makeHttpJsonRequest(PREFIX + "/user", "GET");
-        List<User> receivedUser = User.fromJson((new JSONObject(new JSONTokener(response.getBody())).getJSONObject("_embedded").getJSONArray("user")));
+        List<User> receivedUser = codec.decodeUsers(response.getBody());
         assertEquals(receivedUser.get(0).getName(),"Bar");
         assertEquals(receivedUser.get(0).getImageUrl(),"http://example.com/bar");
         assertEquals(receivedUser.get(0).getUserType(),UserType.DEVELOPER);
@@ -213,7 +450,7 @@ public class TestServer {
     @Test
     public void testReadUser() throws IOException {
         HttpResponse response = makeHttpJsonRequest(sampleUser.getUrl(), "GET");
-        User receivedUser = User.fromJson(new JSONObject(new JSONTokener(response.getBody())));
+        User receivedUser = codec.decodeUser(response.getBody());
         assertEquals("Bar", receivedUser.getName());
         assertEquals("http://example.com/bar", receivedUser.getImageUrl());
         assertEquals(UserType.DEVELOPER, receivedUser.getUserType());
@@ -231,7 +468,7 @@ public class TestServer {
         HttpResponse response = makeHttpJsonRequest(sampleUser.getUrl(), "PUT", user.toJson());
         assertEquals(response.getStatus(), 204);
         response = makeHttpJsonRequest(sampleUser.getUrl(), "GET");
-        User receivedUser = User.fromJson(new JSONObject(new JSONTokener(response.getBody())));
+        User receivedUser = codec.decodeUser(response.getBody());
         //Checking if values in sampleUser have updated
         assertEquals("Test", receivedUser.getName());
         assertEquals(UserType.CUSTOMER, receivedUser.getUserType());
@@ -259,7 +496,7 @@ public class TestServer {
         HttpResponse response = makeHttpJsonRequest(sampleUser.getUrl()+"/created", "GET");
         assertEquals(response.getStatus(), 200);
         //Checking the values to make sure they match
-        List<Defect> defects = Defect.fromJson((new JSONObject(new JSONTokener(response.getBody())).getJSONObject("_embedded").getJSONArray("defect")));
+        List<Defect> defects = codec.decodeDefects(response.getBody());
         assertEquals(defects.get(0).getSummary(), sampleDefect.getSummary());
         assertEquals(defects.get(0).getStatus(),sampleDefect.getStatus());
     }
@@ -273,7 +510,7 @@ public class TestServer {
         //Get the defects the user was assigned
         HttpResponse response = makeHttpJsonRequest(sampleUser.getUrl()+"/assigned", "GET");
         assertEquals(response.getStatus(), 200);
-        List<Defect> defects = Defect.fromJson((new JSONObject(new JSONTokener(response.getBody())).getJSONObject("_embedded").getJSONArray("defect")));
+        List<Defect> defects = codec.decodeDefects(response.getBody());
         assertEquals(defects.get(0).getSummary(), sampleDefect.getSummary());
         assertEquals(defects.get(0).getStatus(),sampleDefect.getStatus());
     }
@@ -285,12 +522,66 @@ public class TestServer {
     @Test
     public void testReadUserByName() throws IOException {
         HttpResponse response = makeHttpJsonRequest(PREFIX + "/user/search/findByName?name="+sampleUser.getName(), "GET");
-        List<User> receivedUser = User.fromJson((new JSONObject(new JSONTokener(response.getBody())).getJSONObject("_embedded").getJSONArray("user")));
+        List<User> receivedUser = codec.decodeUsers(response.getBody());
         assertEquals(response.getStatus(),200);
         assertEquals("Bar", receivedUser.get(0).getName());
         assertEquals("http://example.com/bar", receivedUser.get(0).getImageUrl());
         assertEquals(UserType.DEVELOPER, receivedUser.get(0).getUserType());
     }
+
+    /**
+     * Test Requirement 2 (R): read all defects, streamed with and without compression
+     * @throws IOException
+     */
+    @Test
+    public void testReadAllDefectCompressed() throws IOException, ParseException {
+        long before = bytesReceived.get();
+        List<Defect> plain = Defect.fromJson(getJson(PREFIX + "/defect", false).getJSONObject("_embedded").getJSONArray("defect"));
+        long plainBytes = bytesReceived.get() - before;
+        before = bytesReceived.get();
+        List<Defect> compressed = Defect.fromJson(getJson(PREFIX + "/defect", true).getJSONObject("_embedded").getJSONArray("defect"));
+        long compressedBytes = bytesReceived.get() - before;
+        assertEquals(plain.size(), compressed.size());
+        assertEquals(sampleDefect.getUrl(), compressed.get(0).getUrl());
+        assertEquals(sampleDefect.getSummary(), compressed.get(0).getSummary());
+
+        // only meaningful when the server compresses, see testDecodeCompressed for the decoder itself
+        List<String> encoding = makeHttpJsonRequest(PREFIX + "/defect", "GET").getHeaders().get("Content-Encoding");
+        Assume.assumeTrue("server does not compress responses", encoding != null);
+        assertTrue(encoding.get(0).equals("gzip") || encoding.get(0).equals("deflate"));
+        assertTrue(compressedBytes < plainBytes);
+    }
+
+    /**
+     * Test Requirement 2 (R): gzip and deflate response bodies decode to the JSON that was sent
+     * @throws IOException
+     */
+    @Test
+    public void testDecodeCompressed() throws IOException {
+        String json = "{\"_embedded\":{\"defect\":[" + sampleDefect.toJson() + "]}}";
+        byte[] raw = json.getBytes("UTF-8");
+
+        ByteArrayOutputStream gzip = new ByteArrayOutputStream();
+        try (OutputStream out = new GZIPOutputStream(gzip)) {
+            out.write(raw);
+        }
+        ByteArrayOutputStream deflate = new ByteArrayOutputStream();
+        try (OutputStream out = new DeflaterOutputStream(deflate)) {
+            out.write(raw);
+        }
+
+        assertDecodes(gzip.toByteArray(), "gzip");
+        assertDecodes(deflate.toByteArray(), "deflate");
+        assertDecodes(raw, null);
+    }
+
+    private void assertDecodes(byte[] body, String encoding) throws IOException {
+        try (Reader reader = new InputStreamReader(decode(new ByteArrayInputStream(body), encoding), "UTF-8")) {
+            JSONObject defect = new JSONObject(new JSONTokener(reader)).getJSONObject("_embedded").getJSONArray("defect").getJSONObject(0);
+            assertEquals(sampleDefect.getSummary(), defect.getString("summary"));
+            assertEquals(sampleDefect.getCreatedByUrl(), defect.getString("createdBy"));
+        }
+    }
     // ---------------------------------------------------//
 
     /**
@@ -403,6 +694,32 @@ public class TestServer {
         response = makeHttpJsonRequest(sampleDefect.getUrl(), "PUT", sampleDefect.toJson());
         assertEquals(response.getStatus(), 400);
     }
+    /**
+     * Test Requirements 7/8 : batched status and severity transitions
+     * @throws IOException
+     */
+    @Test
+    public void testBatchedTransitions() throws IOException, ParseException {
+        BatchWriter writer = new BatchWriter(4);
+        try {
+            for(Status status : new Status[] {Status.ACCEPTED, Status.FIXED, Status.REOPENED, Status.CLOSED})
+                writer.put(sampleDefect.getUrl(), sampleDefect.setStatus(status).toJson());
+            writer.put(sampleDefect.getUrl(), sampleDefect.setSeverity(Severity.MAJOR).toJson());
+            Map<String, List<HttpResponse>> responses = writer.flush();
+
+            // the five PUTs are coalesced into the last one
+            assertEquals(4, writer.getCoalescedCount());
+            assertEquals(1, writer.getSentCount());
+            assertEquals(204, responses.get(sampleDefect.getUrl()).get(0).getStatus());
+        }
+        finally {
+            writer.close();
+        }
+        HttpResponse response = makeHttpJsonRequest(sampleDefect.getUrl(), "GET");
+        Defect receivedDefect = codec.decodeDefect(response.getBody());
+        assertEquals(Status.CLOSED, receivedDefect.getStatus());
+        assertEquals(Severity.MAJOR, receivedDefect.getSeverity());
+    }
     /**
      * Test Requirement 9 : created/assigned to user
      * @throws IOException
@@ -413,7 +730,7 @@ public class TestServer {
         HttpResponse response = makeHttpJsonRequest(sampleUser.getUrl()+"/created", "GET");
         assertEquals(response.getStatus(), 200);
         //Checking the values to make sure they match
-        List<Defect> defects = Defect.fromJson((new JSONObject(new JSONTokener(response.getBody())).getJSONObject("_embedded").getJSONArray("defect")));
+        List<Defect> defects = codec.decodeDefects(response.getBody());
         assertEquals(defects.get(0).getSummary(), sampleDefect.getSummary());
         assertEquals(defects.get(0).getStatus(),sampleDefect.getStatus());
         //Get the defects the user was assigned
@@ -478,4 +795,101 @@ public class TestServer {
         assertEquals(response.getStatus(), 409);
     }
 
+    /**
+     * Test Requirements 7/8 : a cached defect is refreshed when only its status or severity changed
+     * @throws Exception
+     */
+    @Test
+    public void testEntityCacheRefresh() throws Exception {
+        File file = File.createTempFile("entities", ".cache");
+        file.delete();
+        EntityCache cache = EntityCache.open(file);
+        try {
+            cache.refresh();
+            assertEquals(Status.CREATED, cache.getDefect(sampleDefect.getUrl()).getStatus());
+
+            sampleDefect.setStatus(Status.ACCEPTED).setSeverity(Severity.MAJOR);
+            assertEquals(204, makeHttpJsonRequest(sampleDefect.getUrl(), "PUT", sampleDefect.toJson()).getStatus());
+            assertEquals(1, cache.refresh());
+            Defect cached = cache.getDefect(sampleDefect.getUrl());
+            assertEquals(Status.ACCEPTED, cached.getStatus());
+            assertEquals(Severity.MAJOR, cached.getSeverity());
+            assertEquals(0, cache.refresh());
+        }
+        finally {
+            cache.close();
+            file.delete();
+        }
+    }
+
+    /**
+     * Record a CRUD flow split over two threads and replay it: every entity URL must be rewritten to
+     * the replayed one, including the user created in the other stream
+     * @throws Exception
+     */
+    @Test
+    public void testRecordAndReplay() throws Exception {
+        File trace = File.createTempFile("trace", ".jsonl");
+        trace.deleteOnExit();
+        TrafficRecorder recorder = new TrafficRecorder(new OutputStreamWriter(new FileOutputStream(trace), "UTF-8"));
+        listeners.add(recorder);
+        try {
+            final User user = new User().setName("Replayed").setUserType(UserType.DEVELOPER);
+            Thread creator = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        HttpResponse response = makeHttpJsonRequest(PREFIX + "/user/", "POST", user.toJson());
+                        user.setUrl(response.getHeaders().get("Location").get(0));
+                    }
+                    catch(IOException e) { /* user.getUrl() stays null */ }
+                }
+            }, "replay-creator");
+            creator.start();
+            creator.join();
+            assertTrue(user.getUrl() != null);
+
+            Defect defect = new Defect().setSummary("Replayed defect")
+                                        .setCreated(new Date())
+                                        .setCreatedByUrl(user.getUrl())
+                                        .setAssignedToUrl(user.getUrl())
+                                        .setSeverity(Severity.MINOR)
+                                        .setStatus(Status.CREATED);
+            HttpResponse response = makeHttpJsonRequest(PREFIX + "/defect/", "POST", defect.toJson());
+            assertEquals(201, response.getStatus());
+            defect.setUrl(response.getHeaders().get("Location").get(0));
+            assertEquals(204, makeHttpJsonRequest(defect.getUrl(), "PUT", defect.setStatus(Status.ACCEPTED).toJson()).getStatus());
+            assertEquals(200, makeHttpJsonRequest(defect.getUrl(), "GET").getStatus());
+            assertEquals(204, makeHttpJsonRequest(defect.getUrl(), "DELETE").getStatus());
+            assertEquals(204, makeHttpJsonRequest(user.getUrl(), "DELETE").getStatus());
+        }
+        finally {
+            listeners.remove(recorder);
+            recorder.close();
+        }
+
+        List<TrafficReplayer.Request> requests;
+        try (Reader in = new InputStreamReader(new FileInputStream(trace), "UTF-8")) {
+            requests = TrafficReplayer.load(in);
+        }
+        assertEquals(6, requests.size());
+        TrafficReplayer replayer = new TrafficReplayer().setSpeed(0);
+        replayer.replay(requests);
+        assertEquals(6, replayer.getSent());
+        assertEquals(0, replayer.getMismatched());
+        assertEquals(0, replayer.getFailed());
+    }
+
+    /**
+     * Test Requirements 3, 10, 11, 12 under concurrency. The rounds are the same on every run, try
+     * others or reproduce a failure with -Dtestserver.seed=<seed>
+     * @throws Exception
+     */
+    @Test
+    public void testConcurrentConsistency() throws Exception {
+        long seed = Long.getLong("testserver.seed", 20151002L);
+        List<String> violations = new ConsistencyChecker(seed, 8).run(3);
+        assertTrue(violations.toString(), violations.isEmpty());
+    }
+
 }
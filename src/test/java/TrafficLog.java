@@ -0,0 +1,333 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Opt-in structured log of request/response traffic, one JSON object per line.
+ *
+ * Request threads claim a slot in a preallocated ring buffer with a CAS and copy the request's fields
+ * into it. Nothing is allocated and no lock is taken. When the ring is full the entry is dropped and
+ * counted, the request thread never waits. A single consumer thread formats published slots and
+ * writes them to a memory-mapped file.
+ *
+ * Requests are sampled: 1 in N at random, plus every slow one and every error if asked to. The
+ * number of entries logged and dropped and the mean time spent on the request thread are printed
+ * when the JVM exits.
+ *
+ * Enable with -Dtestserver.trafficlog=path/to/traffic.log, and optionally
+ *   -Dtestserver.trafficlog.sample=N       log 1 in N requests (default 1, 0 for none)
+ *   -Dtestserver.trafficlog.slowMillis=M   also log every request slower than M ms
+ *   -Dtestserver.trafficlog.errors=true    also log every failed request or status >= 400
+ */
+public class TrafficLog implements RequestListener {
+
+    private static final int CAPACITY = 8192;          // slots, a power of two
+    private static final int TEXT_BYTES = 256;         // URL and error body are truncated to this
+    private static final long MAP_BYTES = 64L << 20;   // the file is mapped 64 MB at a time
+    private static final String[] METHODS = {"GET", "POST", "PUT", "DELETE", "HEAD", "OPTIONS", "PATCH"};
+
+    /**
+     * Start logging to a file, using the sampling settings from the system properties.
+     * @param path File to write to. It is overwritten.
+     * @return The log, to add to TestServer.listeners
+     */
+    public static TrafficLog open(String path) throws IOException {
+        final TrafficLog log = new TrafficLog(new File(path),
+                Integer.getInteger("testserver.trafficlog.sample", 1),
+                Long.getLong("testserver.trafficlog.slowMillis", 0L),
+                Boolean.getBoolean("testserver.trafficlog.errors"));
+        Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+            @Override
+            public void run() {
+                log.close();
+                System.err.println(log);
+            }
+        }));
+        return log;
+    }
+
+    /* Sampling */
+
+    private final int sampleEvery;
+    private final long slowNanos;
+    private final boolean logErrors;
+
+    /* Ring buffer: slot i holds the entry with sequence published[i] */
+
+    private final AtomicLongArray published = new AtomicLongArray(CAPACITY);
+    private final long[] startMillis = new long[CAPACITY];
+    private final long[] latencyNanos = new long[CAPACITY];
+    private final int[] status = new int[CAPACITY];
+    private final int[] method = new int[CAPACITY];
+    private final long[] thread = new long[CAPACITY];
+    private final byte[][] url = new byte[CAPACITY][TEXT_BYTES];
+    private final int[] urlLength = new int[CAPACITY];
+    private final byte[][] error = new byte[CAPACITY][TEXT_BYTES];
+    private final int[] errorLength = new int[CAPACITY];
+
+    private final AtomicLong claimed = new AtomicLong();
+    private final AtomicLong consumed = new AtomicLong();
+
+    /* Consumer */
+
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+    private MappedByteBuffer mapped;
+    private long mappedAt;
+    private final byte[] line = new byte[6 * TEXT_BYTES];
+    private final Thread consumer;
+    private volatile boolean closed;
+    private boolean fileClosed;
+
+    /* Metrics */
+
+    private final LongAdder logged = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder hotPathCalls = new LongAdder();
+    private final LongAdder hotPathNanos = new LongAdder();
+
+    /**
+     * Create a traffic log
+     * @param path File to write to. It is overwritten.
+     * @param sampleEvery Log 1 in sampleEvery requests at random, 0 to only log slow requests and errors
+     * @param slowMillis Always log requests slower than this, 0 to disable
+     * @param logErrors Always log failed requests and responses with status >= 400
+     */
+    public TrafficLog(File path, int sampleEvery, long slowMillis, boolean logErrors) throws IOException {
+        this.sampleEvery = sampleEvery;
+        this.slowNanos = TimeUnit.MILLISECONDS.toNanos(slowMillis);
+        this.logErrors = logErrors;
+        for(int i = 0; i < CAPACITY; i++)
+            published.set(i, -1);
+
+        file = new RandomAccessFile(path, "rw");
+        file.setLength(0);
+        channel = file.getChannel();
+        mapped = channel.map(FileChannel.MapMode.READ_WRITE, 0, MAP_BYTES);
+
+        consumer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                consume();
+            }
+        }, "traffic-log");
+        consumer.setDaemon(true);
+        consumer.start();
+    }
+
+    @Override
+    public void requestStarted(String method, String url) {
+    }
+
+    @Override
+    public void requestCompleted(String method, String url, String requestJson, HttpResponse response,
+                                 long startMillis, long latencyNanos) {
+        long start = System.nanoTime();
+        int code = response == null ? -1 : response.getStatus();
+        boolean isError = code < 0 || code >= 400;
+        if(!closed && sampled(isError, latencyNanos))
+            append(method, url, code, isError && response != null ? response.getBody() : null, startMillis, latencyNanos);
+        hotPathNanos.add(System.nanoTime() - start);
+        hotPathCalls.increment();
+    }
+
+    private boolean sampled(boolean isError, long latencyNanos) {
+        if(logErrors && isError) return true;
+        if(slowNanos > 0 && latencyNanos >= slowNanos) return true;
+        return sampleEvery > 0 && (sampleEvery == 1 || ThreadLocalRandom.current().nextInt(sampleEvery) == 0);
+    }
+
+    /* Producer: claim a slot, fill it, publish it */
+    private void append(String methodName, String urlStr, int code, String body, long start, long latency) {
+        long seq;
+        do {
+            seq = claimed.get();
+            if(seq - consumed.get() >= CAPACITY) {
+                dropped.increment();
+                return;
+            }
+        } while(!claimed.compareAndSet(seq, seq + 1));
+
+        int slot = (int) (seq & (CAPACITY - 1));
+        startMillis[slot] = start;
+        latencyNanos[slot] = latency;
+        status[slot] = code;
+        method[slot] = methodIndex(methodName);
+        thread[slot] = Thread.currentThread().getId();
+        urlLength[slot] = copyAscii(urlStr, url[slot]);
+        errorLength[slot] = body == null ? 0 : copyAscii(body, error[slot]);
+        published.lazySet(slot, seq);
+    }
+
+    /* Consumer thread: write published slots in sequence order */
+    private void consume() {
+        long next = 0;
+        while(true) {
+            boolean stopping = closed;
+            int slot = (int) (next & (CAPACITY - 1));
+            if(published.get(slot) == next) {
+                try {
+                    write(slot);
+                }
+                catch(IOException e) {
+                    System.err.println("Traffic log stopped: " + e.getMessage());
+                    closed = true;
+                    return;
+                }
+                logged.increment();
+                consumed.lazySet(++next);
+            }
+            else if(stopping && next == claimed.get()) {
+                return;
+            }
+            else {
+                LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1));
+            }
+        }
+    }
+
+    private void write(int slot) throws IOException {
+        int n = 0;
+        n = put(line, n, "{\"timestamp\":");
+        n = put(line, n, Long.toString(startMillis[slot]));
+        n = put(line, n, ",\"thread\":");
+        n = put(line, n, Long.toString(thread[slot]));
+        n = put(line, n, ",\"method\":\"");
+        n = put(line, n, method[slot] < 0 ? "OTHER" : METHODS[method[slot]]);
+        n = put(line, n, "\",\"url\":\"");
+        n = putEscaped(line, n, url[slot], urlLength[slot]);
+        n = put(line, n, "\",\"status\":");
+        n = put(line, n, Integer.toString(status[slot]));
+        n = put(line, n, ",\"latencyMicros\":");
+        n = put(line, n, Long.toString(latencyNanos[slot] / 1000));
+        if(errorLength[slot] > 0) {
+            n = put(line, n, ",\"error\":\"");
+            n = putEscaped(line, n, error[slot], errorLength[slot]);
+            n = put(line, n, "\"");
+        }
+        n = put(line, n, "}\n");
+
+        if(mapped.remaining() < n) {
+            mappedAt += mapped.position();
+            mapped = channel.map(FileChannel.MapMode.READ_WRITE, mappedAt, MAP_BYTES);
+        }
+        mapped.put(line, 0, n);
+    }
+
+    /**
+     * Write out everything logged so far and stop logging.
+     */
+    public synchronized void close() {
+        if(fileClosed) return;
+        fileClosed = true;
+        closed = true;
+        boolean interrupted = false;
+        while(consumer.isAlive()) {
+            try {
+                consumer.join();
+            }
+            catch(InterruptedException e) {
+                interrupted = true; // the file can't be truncated under a running consumer
+            }
+        }
+        try {
+            // drop the unused tail of the last mapping, also when the consumer stopped on an error
+            long length = mappedAt + mapped.position();
+            mapped.force();
+            channel.truncate(length);
+        }
+        catch(IOException e) {
+            System.err.println("Could not truncate traffic log: " + e.getMessage());
+        }
+        finally {
+            try {
+                file.close();
+            }
+            catch(IOException e) {
+                System.err.println("Could not close traffic log: " + e.getMessage());
+            }
+            if(interrupted) Thread.currentThread().interrupt();
+        }
+    }
+
+    /* helpers for formatting without allocating */
+
+    private static int methodIndex(String name) {
+        for(int i = 0; i < METHODS.length; i++)
+            if(METHODS[i].equals(name)) return i;
+        return -1;
+    }
+
+    private static int copyAscii(String s, byte[] dest) {
+        int n = Math.min(s.length(), dest.length);
+        for(int i = 0; i < n; i++) {
+            char c = s.charAt(i);
+            dest[i] = c < 128 ? (byte) c : (byte) '?';
+        }
+        return n;
+    }
+
+    private static int put(byte[] dest, int at, String s) {
+        for(int i = 0; i < s.length(); i++)
+            dest[at++] = (byte) s.charAt(i);
+        return at;
+    }
+
+    private static int putEscaped(byte[] dest, int at, byte[] src, int length) {
+        for(int i = 0; i < length; i++) {
+            byte b = src[i];
+            if(b == '"' || b == '\\') {
+                dest[at++] = '\\';
+                dest[at++] = b;
+            }
+            else if(b < 0x20) {
+                dest[at++] = ' ';
+            }
+            else {
+                dest[at++] = b;
+            }
+        }
+        return at;
+    }
+
+    /* Metrics getters */
+
+    /**
+     * @return Number of entries written to the file
+     */
+    public long getLogged() {
+        return logged.sum();
+    }
+
+    /**
+     * @return Number of sampled entries dropped because the ring buffer was full
+     */
+    public long getDropped() {
+        return dropped.sum();
+    }
+
+    /**
+     * @return Mean time spent in requestCompleted() on the request thread, in nanoseconds
+     */
+    public double getMeanHotPathNanos() {
+        long calls = hotPathCalls.sum();
+        return calls == 0 ? 0 : (double) hotPathNanos.sum() / calls;
+    }
+
+    @Override
+    public String toString() {
+        return "TrafficLog{" +
+                "logged=" + getLogged() +
+                ", dropped=" + getDropped() +
+                ", meanHotPathNanos=" + String.format("%.0f", getMeanHotPathNanos()) +
+                '}';
+    }
+}
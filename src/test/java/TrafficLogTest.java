@@ -0,0 +1,86 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+/**
+ * TrafficLog entries for error responses carry the start of the error body. Requests go through
+ * TestServer.makeHttpJsonRequest() to a stub server on the loopback interface, not the defect server.
+ */
+public class TrafficLogTest {
+
+    private static final String ERROR_BODY = "{\"cause\":null,\"message\":\"Name \\\"taken\\\" already exists\"}";
+
+    private HttpServer stub;
+    private String prefix;
+    private File file;
+
+    @Before
+    public void setUp() throws IOException {
+        stub = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        stub.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                try(InputStream in = exchange.getRequestBody()) {
+                    while(in.read() != -1) { /* drain the request */ }
+                }
+                boolean conflict = exchange.getRequestURI().getPath().startsWith("/conflict");
+                byte[] body = (conflict ? ERROR_BODY : "{}").getBytes(StandardCharsets.UTF_8);
+                exchange.getResponseHeaders().set("Content-Type", "application/json");
+                exchange.sendResponseHeaders(conflict ? 409 : 200, body.length);
+                try(OutputStream out = exchange.getResponseBody()) {
+                    out.write(body);
+                }
+            }
+        });
+        stub.start();
+        prefix = "http://localhost:" + stub.getAddress().getPort();
+        file = File.createTempFile("traffic", ".log");
+    }
+
+    @After
+    public void tearDown() {
+        stub.stop(0);
+        file.delete();
+    }
+
+    @Test
+    public void testErrorEntryCarriesBody() throws IOException {
+        TrafficLog log = new TrafficLog(file, 0, 0, true); // errors only
+        TestServer.listeners.add(log);
+        try {
+            assertEquals(200, TestServer.makeHttpJsonRequest(prefix + "/ok", "GET").getStatus());
+            HttpResponse response = TestServer.makeHttpJsonRequest(prefix + "/conflict", "POST", "{\"name\":\"taken\"}");
+            assertEquals(409, response.getStatus());
+            assertEquals(ERROR_BODY, response.getBody());
+        }
+        finally {
+            TestServer.listeners.remove(log);
+            log.close();
+        }
+
+        List<String> lines = Files.readAllLines(file.toPath(), StandardCharsets.UTF_8);
+        assertEquals(1, lines.size());
+        JSONObject entry = new JSONObject(lines.get(0));
+        assertEquals("POST", entry.getString("method"));
+        assertEquals(409, entry.getInt("status"));
+        assertFalse(entry.isNull("error"));
+        assertEquals(ERROR_BODY, entry.getString("error"));
+    }
+}
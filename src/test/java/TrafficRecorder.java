@@ -0,0 +1,147 @@
+import org.json.JSONObject;
+
+import java.io.*;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Record mode: log every request made through makeHttpJsonRequest() to a JSONL trace, one request
+ * per line, which TrafficReplayer can replay.
+ *
+ * Request threads only append to a lock-free queue. A background thread turns the entries into JSON
+ * and writes them, so recording adds no I/O to the request path.
+ *
+ * Enable with -Dtestserver.record=path/to/trace.jsonl
+ */
+public class TrafficRecorder implements RequestListener {
+
+    /* One recorded request, as handed from the request thread to the writer */
+    private static class Entry {
+        final long startMillis;
+        final long latencyNanos;
+        final String stream;
+        final String method;
+        final String url;
+        final String body;
+        final int status;
+        final String location;
+
+        Entry(long startMillis, long latencyNanos, String stream, String method, String url, String body,
+              int status, String location) {
+            this.startMillis = startMillis;
+            this.latencyNanos = latencyNanos;
+            this.stream = stream;
+            this.method = method;
+            this.url = url;
+            this.body = body;
+            this.status = status;
+            this.location = location;
+        }
+    }
+
+    /**
+     * Start recording to a file, until the JVM exits.
+     * @param path File to write the trace to. It is overwritten.
+     * @return The recorder, to add to TestServer.listeners
+     * @throws IOException if the file cannot be created
+     */
+    public static TrafficRecorder open(String path) throws IOException {
+        final TrafficRecorder recorder = new TrafficRecorder(new BufferedWriter(new OutputStreamWriter(new FileOutputStream(path), "UTF-8")));
+        Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+            @Override
+            public void run() {
+                recorder.close();
+            }
+        }));
+        return recorder;
+    }
+
+    /* Fields */
+
+    private final ConcurrentLinkedQueue<Entry> queue = new ConcurrentLinkedQueue<>();
+    private final Writer out;
+    private final Thread writer;
+    private volatile boolean closed;
+
+    public TrafficRecorder(Writer out) {
+        this.out = out;
+        this.writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                writeLoop();
+            }
+        }, "traffic-recorder");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    @Override
+    public void requestStarted(String method, String url) {
+    }
+
+    @Override
+    public void requestCompleted(String method, String url, String requestJson, HttpResponse response,
+                                 long startMillis, long latencyNanos) {
+        if(closed) return;
+        int status = response == null ? -1 : response.getStatus();
+        String location = null;
+        if(response != null && response.getHeaders() != null) {
+            List<String> values = response.getHeaders().get("Location");
+            if(values != null && !values.isEmpty()) location = values.get(0);
+        }
+        queue.add(new Entry(startMillis, latencyNanos, Thread.currentThread().getName(), method, url, requestJson,
+                            status, location));
+    }
+
+    /**
+     * Write out everything recorded so far and stop recording.
+     */
+    public void close() {
+        if(closed) return;
+        closed = true;
+        LockSupport.unpark(writer);
+        try {
+            writer.join();
+        }
+        catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /* Background thread: drain the queue to the file, parking briefly while it is empty */
+    private void writeLoop() {
+        try {
+            while(true) {
+                boolean stopping = closed;
+                Entry entry;
+                while((entry = queue.poll()) != null)
+                    write(entry);
+                out.flush();
+                if(stopping) break;
+                LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(10));
+            }
+            out.close();
+        }
+        catch(IOException e) {
+            closed = true;
+            System.err.println("Traffic recording stopped: " + e.getMessage());
+        }
+    }
+
+    private void write(Entry entry) throws IOException {
+        JSONObject line = new JSONObject();
+        line.put("timestamp", entry.startMillis);
+        line.put("stream", entry.stream);
+        line.put("method", entry.method);
+        line.put("template", UrlTemplates.template(entry.url));
+        line.put("url", entry.url);
+        if(entry.body != null) line.put("body", entry.body);
+        line.put("status", entry.status);
+        line.put("latencyMicros", entry.latencyNanos / 1000);
+        if(entry.location != null) line.put("location", entry.location);
+        out.write(line.toString());
+        out.write('\n');
+    }
+}
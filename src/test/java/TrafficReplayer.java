@@ -0,0 +1,242 @@
+import org.json.JSONObject;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Replay a trace written by TrafficRecorder against the server.
+ *
+ * Every recorded thread ("stream") gets its own replay thread, which sends that stream's requests in
+ * their original order, so the replay runs with the original concurrency. Requests are spaced out
+ * like in the trace, scaled by the speed factor, or sent back to back at max speed.
+ *
+ * Entities created during the replay get new URLs. Whenever a recorded entity URL shows up in a later
+ * request URL or body, it is rewritten to the URL the replayed POST returned, waiting for that POST
+ * to complete first if it runs in another stream.
+ *
+ * Arguments: trace.jsonl [--speed=1|N|max] [--target=http://host:port]
+ */
+public class TrafficReplayer {
+
+    // entity URLs, like http://localhost:9999/defect/12
+    private static final Pattern ENTITY_URL = Pattern.compile("https?://[^/\\s\"]+/[A-Za-z_]+/[0-9A-Za-z-]+");
+    private static final long DEPENDENCY_TIMEOUT_SECONDS = 60;
+
+    /**
+     * One recorded request
+     */
+    public static class Request {
+        long timestamp;
+        String stream;
+        String method;
+        String url;
+        String body;
+        int status;
+        String location;
+
+        static Request fromJson(JSONObject root) {
+            Request request = new Request();
+            request.timestamp = root.getLong("timestamp");
+            request.stream = root.optString("stream", "main");
+            request.method = root.getString("method");
+            request.url = root.getString("url");
+            request.body = root.isNull("body") ? null : root.getString("body");
+            request.status = root.getInt("status");
+            request.location = root.isNull("location") ? null : root.getString("location");
+            return request;
+        }
+    }
+
+    /**
+     * Read a trace
+     * @param in JSONL trace, as written by TrafficRecorder
+     * @return The recorded requests, in timestamp order
+     */
+    public static List<Request> load(Reader in) throws IOException {
+        List<Request> requests = new ArrayList<>();
+        BufferedReader reader = new BufferedReader(in);
+        String line;
+        while((line = reader.readLine()) != null) {
+            if(!line.trim().isEmpty())
+                requests.add(Request.fromJson(new JSONObject(line)));
+        }
+        Collections.sort(requests, new Comparator<Request>() {
+            @Override
+            public int compare(Request a, Request b) {
+                return Long.compare(a.timestamp, b.timestamp);
+            }
+        });
+        return requests;
+    }
+
+    public static void main(String[] args) throws Exception {
+        if(args.length < 1)
+            throw new IllegalArgumentException("Usage: TrafficReplayer trace.jsonl [--speed=1|N|max] [--target=http://host:port]");
+        TrafficReplayer replayer = new TrafficReplayer();
+        for(int i = 1; i < args.length; i++) {
+            if(args[i].startsWith("--speed="))
+                replayer.setSpeed(args[i].equals("--speed=max") ? 0 : Double.parseDouble(args[i].substring(8)));
+            else if(args[i].startsWith("--target="))
+                replayer.setTarget(args[i].substring(9));
+            else
+                throw new IllegalArgumentException("Unknown option " + args[i]);
+        }
+        try (Reader in = new InputStreamReader(new FileInputStream(args[0]), "UTF-8")) {
+            System.out.println(replayer.replay(load(in)));
+        }
+    }
+
+    /* Fields */
+
+    private double speed = 1;
+    private String target;
+    private final Map<String, CompletableFuture<String>> created = new ConcurrentHashMap<>();
+    private final AtomicInteger sent = new AtomicInteger();
+    private final AtomicInteger mismatched = new AtomicInteger();
+    private final AtomicInteger failed = new AtomicInteger();
+
+    /**
+     * Replay the requests and wait until every stream has finished.
+     * @param requests The recorded requests, in timestamp order
+     * @return A summary of the replay
+     */
+    public String replay(List<Request> requests) throws InterruptedException {
+        if(requests.isEmpty()) return "Nothing to replay";
+
+        // every entity created in the trace gets a slot for its replayed URL
+        Map<String, List<Request>> streams = new LinkedHashMap<>();
+        for(Request request : requests) {
+            if(request.location != null)
+                created.put(request.location, new CompletableFuture<String>());
+            List<Request> stream = streams.get(request.stream);
+            if(stream == null) {
+                stream = new ArrayList<>();
+                streams.put(request.stream, stream);
+            }
+            stream.add(request);
+        }
+
+        final long recordedStart = requests.get(0).timestamp;
+        final long replayStart = System.currentTimeMillis();
+        ExecutorService executor = Executors.newFixedThreadPool(streams.size());
+        for(final List<Request> stream : streams.values()) {
+            executor.submit(new Runnable() {
+                @Override
+                public void run() {
+                    for(Request request : stream) {
+                        if(speed > 0)
+                            sleepUntil(replayStart + (long) ((request.timestamp - recordedStart) / speed));
+                        send(request);
+                    }
+                }
+            });
+        }
+        executor.shutdown();
+        executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+
+        return String.format("Replayed %d of %d requests in %d streams in %d ms: %d with a different status, %d failed",
+                sent.get(), requests.size(), streams.size(), System.currentTimeMillis() - replayStart,
+                mismatched.get(), failed.get());
+    }
+
+    /* Rewrite and send one request, and publish the URL of anything it created */
+    private void send(Request request) {
+        CompletableFuture<String> slot = request.location == null ? null : created.get(request.location);
+        try {
+            String url = rewrite(request.url);
+            String body = request.body == null ? null : rewrite(request.body);
+            HttpResponse response = TestServer.makeHttpJsonRequest(url, request.method, body);
+            sent.incrementAndGet();
+            if(response.getStatus() != request.status)
+                mismatched.incrementAndGet();
+            if(slot != null) {
+                List<String> location = response.getHeaders() == null ? null : response.getHeaders().get("Location");
+                if(location != null && !location.isEmpty())
+                    slot.complete(location.get(0));
+                else
+                    slot.completeExceptionally(new IOException("Replayed " + request.method + " " + url + " created nothing"));
+            }
+        }
+        catch(Exception e) {
+            failed.incrementAndGet();
+            if(slot != null) slot.completeExceptionally(e);
+        }
+    }
+
+    /* Replace recorded entity URLs by replayed ones, and the recorded server by the target */
+    private String rewrite(String text) throws Exception {
+        Matcher matcher = ENTITY_URL.matcher(text);
+        StringBuffer sb = new StringBuffer();
+        while(matcher.find()) {
+            CompletableFuture<String> replayed = created.get(matcher.group());
+            String replacement = replayed != null
+                    ? replayed.get(DEPENDENCY_TIMEOUT_SECONDS, TimeUnit.SECONDS)
+                    : retarget(matcher.group());
+            matcher.appendReplacement(sb, Matcher.quoteReplacement(replacement));
+        }
+        matcher.appendTail(sb);
+        return retarget(sb.toString());
+    }
+
+    private String retarget(String url) {
+        if(target == null || !url.startsWith("http")) return url;
+        int pathStart = url.indexOf('/', url.indexOf("//") + 2);
+        return pathStart < 0 ? target : target + url.substring(pathStart);
+    }
+
+    private static void sleepUntil(long millis) {
+        long delay = millis - System.currentTimeMillis();
+        if(delay <= 0) return;
+        try {
+            Thread.sleep(delay);
+        }
+        catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /* Setters */
+
+    /**
+     * @param speed 1 for the recorded pace, N for N times faster, 0 for as fast as possible
+     */
+    public TrafficReplayer setSpeed(double speed) {
+        this.speed = speed;
+        return this;
+    }
+
+    /**
+     * @param target Server to replay against, e.g. "http://localhost:9999". By default, the recorded one.
+     */
+    public TrafficReplayer setTarget(String target) {
+        this.target = target;
+        return this;
+    }
+
+    /* Getters */
+
+    /**
+     * @return Number of requests replayed so far
+     */
+    public int getSent() {
+        return sent.get();
+    }
+
+    /**
+     * @return Number of replayed requests whose status differs from the recorded one
+     */
+    public int getMismatched() {
+        return mismatched.get();
+    }
+
+    /**
+     * @return Number of requests that could not be replayed, e.g. on an I/O error
+     */
+    public int getFailed() {
+        return failed.get();
+    }
+}
@@ -0,0 +1,55 @@
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.regex.Pattern;
+
+/**
+ * Turn concrete request URLs into endpoint templates, e.g. "http://localhost:9999/user/42/created"
+ * into "/user/{id}/created", so requests to different entities can be grouped together.
+ */
+public class UrlTemplates {
+
+    private static final Pattern UUID = Pattern.compile("[0-9a-fA-F]{8}-[0-9a-fA-F]{4}-[0-9a-fA-F]{4}-[0-9a-fA-F]{4}-[0-9a-fA-F]{12}");
+
+    /**
+     * @param url A request URL
+     * @return The path with id segments replaced by {id}, and query values by their parameter name
+     */
+    public static String template(String url) {
+        String path;
+        String query;
+        try {
+            URL parsed = new URL(url);
+            path = parsed.getPath();
+            query = parsed.getQuery();
+        }
+        catch(MalformedURLException e) {
+            return url;
+        }
+
+        StringBuilder sb = new StringBuilder();
+        for(String segment : path.split("/")) {
+            if(segment.isEmpty()) continue;
+            sb.append('/');
+            sb.append(isId(segment) ? "{id}" : segment);
+        }
+        if(sb.length() == 0) sb.append('/');
+
+        if(query != null) {
+            char separator = '?';
+            for(String parameter : query.split("&")) {
+                String name = parameter.contains("=") ? parameter.substring(0, parameter.indexOf('=')) : parameter;
+                sb.append(separator).append(name).append("={").append(name).append('}');
+                separator = '&';
+            }
+        }
+        return sb.toString();
+    }
+
+    /* numeric ids and UUIDs */
+    private static boolean isId(String segment) {
+        boolean digits = true;
+        for(int i = 0; i < segment.length() && digits; i++)
+            digits = Character.isDigit(segment.charAt(i));
+        return digits || (segment.length() == 36 && UUID.matcher(segment).matches());
+    }
+}